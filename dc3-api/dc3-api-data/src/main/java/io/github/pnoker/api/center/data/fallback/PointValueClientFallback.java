@@ -18,13 +18,18 @@ package io.github.pnoker.api.center.data.fallback;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import io.github.pnoker.api.center.data.feign.PointValueClient;
+import io.github.pnoker.common.bean.CursorPage;
 import io.github.pnoker.common.bean.R;
 import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.bean.point.PointValueAggregate;
+import io.github.pnoker.common.dto.PointValueAggregateDto;
 import io.github.pnoker.common.dto.PointValueDto;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.cloud.openfeign.FallbackFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 /**
  * PointValueClientFallback
  *
@@ -51,6 +56,21 @@ public class PointValueClientFallback implements FallbackFactory<PointValueClien
                 return R.fail(message);
             }
 
+            @Override
+            public R<CursorPage<PointValue>> cursor(PointValueDto pointValueDto, String tenantId) {
+                return R.fail(message);
+            }
+
+            @Override
+            public R<List<PointValueAggregate>> aggregate(PointValueAggregateDto pointValueAggregateDto, String tenantId) {
+                return R.fail(message);
+            }
+
+            @Override
+            public R<List<PointValue>> downsample(PointValueAggregateDto pointValueAggregateDto, String tenantId) {
+                return R.fail(message);
+            }
+
         };
     }
 }
\ No newline at end of file
@@ -18,9 +18,12 @@ package io.github.pnoker.api.center.data.feign;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import io.github.pnoker.api.center.data.fallback.PointValueClientFallback;
+import io.github.pnoker.common.bean.CursorPage;
 import io.github.pnoker.common.bean.R;
 import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.bean.point.PointValueAggregate;
 import io.github.pnoker.common.constant.ServiceConstant;
+import io.github.pnoker.common.dto.PointValueAggregateDto;
 import io.github.pnoker.common.dto.PointValueDto;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.validation.annotation.Validated;
@@ -29,6 +32,8 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 
+import java.util.List;
+
 /**
  * 数据 FeignClient
  *
@@ -55,4 +60,31 @@ public interface PointValueClient {
      */
     @PostMapping("/list")
     R<Page<PointValue>> list(@RequestBody(required = false) PointValueDto pointValueDto, @RequestHeader(value = ServiceConstant.Header.X_AUTH_TENANT_ID, defaultValue = "-1") String tenantId);
+
+    /**
+     * 游标分页查询 PointValue，按时间倒序，每页耗时与翻页深度无关
+     *
+     * @param pointValueDto PointValueDto
+     * @return CursorPage<PointValue>
+     */
+    @PostMapping("/cursor")
+    R<CursorPage<PointValue>> cursor(@RequestBody(required = false) PointValueDto pointValueDto, @RequestHeader(value = ServiceConstant.Header.X_AUTH_TENANT_ID, defaultValue = "-1") String tenantId);
+
+    /**
+     * 按时间间隔聚合 PointValue，返回每个时间间隔的 count、avg、min、max、first、last
+     *
+     * @param pointValueAggregateDto PointValueAggregateDto
+     * @return PointValueAggregate Array
+     */
+    @PostMapping("/aggregate")
+    R<List<PointValueAggregate>> aggregate(@RequestBody PointValueAggregateDto pointValueAggregateDto, @RequestHeader(value = ServiceConstant.Header.X_AUTH_TENANT_ID, defaultValue = "-1") String tenantId);
+
+    /**
+     * 使用 LTTB 算法降采样 PointValue
+     *
+     * @param pointValueAggregateDto PointValueAggregateDto
+     * @return PointValue Array
+     */
+    @PostMapping("/downsample")
+    R<List<PointValue>> downsample(@RequestBody PointValueAggregateDto pointValueAggregateDto, @RequestHeader(value = ServiceConstant.Header.X_AUTH_TENANT_ID, defaultValue = "-1") String tenantId);
 }
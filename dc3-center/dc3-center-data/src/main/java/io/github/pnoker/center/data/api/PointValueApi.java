@@ -19,16 +19,21 @@ package io.github.pnoker.center.data.api;
 import cn.hutool.core.util.ObjectUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import io.github.pnoker.api.center.data.feign.PointValueClient;
+import io.github.pnoker.center.data.service.PointValueAggregateService;
 import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.common.bean.CursorPage;
 import io.github.pnoker.common.bean.R;
 import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.bean.point.PointValueAggregate;
 import io.github.pnoker.common.constant.ServiceConstant;
+import io.github.pnoker.common.dto.PointValueAggregateDto;
 import io.github.pnoker.common.dto.PointValueDto;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * @author pnoker
@@ -40,6 +45,8 @@ public class PointValueApi implements PointValueClient {
 
     @Resource
     private PointValueService pointValueService;
+    @Resource
+    private PointValueAggregateService pointValueAggregateService;
 
     @Override
     public R<Page<PointValue>> latest(PointValueDto pointValueDto, String tenantId) {
@@ -73,4 +80,46 @@ public class PointValueApi implements PointValueClient {
         return R.fail();
     }
 
+    @Override
+    public R<CursorPage<PointValue>> cursor(PointValueDto pointValueDto, String tenantId) {
+        try {
+            if (ObjectUtil.isEmpty(pointValueDto)) {
+                pointValueDto = new PointValueDto();
+            }
+            CursorPage<PointValue> page = pointValueService.cursor(pointValueDto, tenantId);
+            if (ObjectUtil.isNotNull(page)) {
+                return R.ok(page);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
+    @Override
+    public R<List<PointValueAggregate>> aggregate(PointValueAggregateDto pointValueAggregateDto, String tenantId) {
+        try {
+            List<PointValueAggregate> aggregates = pointValueAggregateService.aggregate(pointValueAggregateDto);
+            if (ObjectUtil.isNotNull(aggregates)) {
+                return R.ok(aggregates);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
+    @Override
+    public R<List<PointValue>> downsample(PointValueAggregateDto pointValueAggregateDto, String tenantId) {
+        try {
+            List<PointValue> pointValues = pointValueAggregateService.downsample(pointValueAggregateDto);
+            if (ObjectUtil.isNotNull(pointValues)) {
+                return R.ok(pointValues);
+            }
+        } catch (Exception e) {
+            return R.fail(e.getMessage());
+        }
+        return R.fail();
+    }
+
 }
\ No newline at end of file
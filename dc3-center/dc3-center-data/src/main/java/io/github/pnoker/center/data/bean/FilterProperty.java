@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.bean;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据中心配置文件 data.point.filter 字段内容，位号数据写入历史存储前的过滤策略
+ * <p>
+ * 过滤只作用于 Mongo 等历史存储，Redis 实时数据总是保存每个位号数据；
+ * policies 按位号、模板覆盖默认策略，未配置的字段使用默认值。
+ *
+ * @author pnoker
+ */
+@Setter
+@Getter
+@ConfigurationProperties(prefix = "data.point.filter")
+public class FilterProperty {
+
+    private boolean enable = false;
+
+    /**
+     * 最多保存过滤状态的位号数量，超出后淘汰最久未写入的位号
+     */
+    private long stateSize = 1000000;
+
+    private Mode mode = Mode.NONE;
+    private double deadband = 0;
+
+    /**
+     * 距离上次保存超过该毫秒数时，即使数据未变化也保存，0 表示不强制保存
+     */
+    private long heartbeat = 600000;
+
+    /**
+     * 检查旋转门压缩暂存数据的间隔毫秒数，超过 heartbeat 没有新数据的位号保存其暂存数据
+     */
+    private long flushInterval = 10000;
+
+    private List<Policy> policies = new ArrayList<>();
+
+    /**
+     * 获取位号的过滤策略，依次匹配位号、模板，都不符合时使用默认策略
+     *
+     * @param pointId   Point Id
+     * @param profileId Profile Id，可为 null
+     * @return Policy
+     */
+    public Policy getPolicy(String pointId, String profileId) {
+        Policy profileMatch = null;
+        for (Policy policy : policies) {
+            if (null != policy.pointId && policy.pointId.equals(pointId)) {
+                return merge(policy);
+            }
+            if (null == profileMatch && null == policy.pointId && null != policy.profileId && policy.profileId.equals(profileId)) {
+                profileMatch = policy;
+            }
+        }
+        return merge(profileMatch);
+    }
+
+    /**
+     * 是否有按模板匹配的策略，有时需要查询位号所属模板
+     *
+     * @return boolean
+     */
+    public boolean hasProfilePolicy() {
+        return policies.stream().anyMatch(policy -> null == policy.pointId && null != policy.profileId);
+    }
+
+    private Policy merge(Policy policy) {
+        Policy merged = new Policy();
+        merged.mode = null != policy && null != policy.mode ? policy.mode : mode;
+        merged.deadband = null != policy && null != policy.deadband ? policy.deadband : deadband;
+        merged.heartbeat = null != policy && null != policy.heartbeat ? policy.heartbeat : heartbeat;
+        return merged;
+    }
+
+    public enum Mode {
+        /**
+         * 不过滤
+         */
+        NONE,
+
+        /**
+         * 数据变化时保存
+         */
+        CHANGE,
+
+        /**
+         * 数值与上次保存的数值之差超过 deadband 时保存，非数值数据变化时保存
+         */
+        ABSOLUTE,
+
+        /**
+         * 数值与上次保存的数值之差超过量程（位号最大值 - 最小值）的 deadband% 时保存，
+         * 位号未配置量程时以上次保存的数值为基准
+         */
+        PERCENT,
+
+        /**
+         * 数值按旋转门算法压缩，只保存拐点，deadband 为压缩偏差，heartbeat 为两次保存之间的最大间隔；
+         * 非数值数据变化时保存
+         */
+        SWINGING_DOOR
+    }
+
+    @Setter
+    @Getter
+    public static class Policy {
+        /**
+         * 匹配的位号与模板，均为空的策略不会被匹配
+         */
+        private String pointId;
+        private String profileId;
+
+        private Mode mode;
+        private Double deadband;
+        private Long heartbeat;
+    }
+}
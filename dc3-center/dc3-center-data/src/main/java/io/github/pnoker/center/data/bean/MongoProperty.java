@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.bean;
+
+import com.mongodb.client.model.TimeSeriesGranularity;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 数据中心配置文件 data.point.sava.mongo 字段内容
+ *
+ * @author pnoker
+ */
+@Setter
+@Getter
+@ConfigurationProperties(prefix = "data.point.sava.mongo")
+public class MongoProperty {
+
+    /**
+     * 位号数据存储方式
+     */
+    private Mode mode = Mode.DOCUMENT;
+
+    /**
+     * 无序批量写入的分块大小，以及同一设备同时写入的分块数量
+     */
+    private int bulkSize = 1000;
+    private int bulkParallelism = 4;
+
+    /**
+     * 时序集合的时间粒度，应与位号采集周期相近
+     */
+    private TimeSeriesGranularity granularity = TimeSeriesGranularity.SECONDS;
+
+    /**
+     * 时序集合数据过期时间（秒），0 表示不过期
+     */
+    private long expireAfter = 0;
+
+    /**
+     * 分桶时间窗口（秒），以及单个分桶最多保存的数据数量，超出后写入新的分桶
+     */
+    private long bucketSpan = 3600;
+    private int bucketSize = 1000;
+
+    /**
+     * 查询与排序使用的时间字段，时序集合与分桶以 originTime 作为时间字段
+     *
+     * @return Time Field
+     */
+    public String getTimeField() {
+        return Mode.DOCUMENT.equals(mode) ? "createTime" : "originTime";
+    }
+
+    public enum Mode {
+        /**
+         * 每个设备一个普通集合，每个位号数据一个文档
+         */
+        DOCUMENT,
+
+        /**
+         * 每个设备一个 MongoDB 原生时序集合，timeField 为 originTime，metaField 为 pointId
+         */
+        TIME_SERIES,
+
+        /**
+         * 每个设备一个分桶集合，一个位号在一个时间窗口内的数据保存在同一个 MgPointValueBucket 文档中
+         */
+        BUCKET
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.bean;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 数据中心配置文件 data.point.repository 与 data.point.spool 字段内容，每个 Repository 一组写入配置
+ *
+ * @author pnoker
+ */
+@Setter
+@Getter
+@ConfigurationProperties(prefix = "data.point")
+public class RepositoryProperty {
+
+    private Map<String, PipelineProperty> repository = new HashMap<>();
+    private SpoolProperty spool = new SpoolProperty();
+
+    /**
+     * 获取 Repository 的写入配置，未配置时使用默认配置
+     *
+     * @param name Repository Name
+     * @return PipelineProperty
+     */
+    public PipelineProperty getPipeline(String name) {
+        PipelineProperty property = repository.get(name);
+        return null != property ? property : new PipelineProperty();
+    }
+
+    @Setter
+    @Getter
+    public static class PipelineProperty {
+        /**
+         * 是否为主存储，主存储队列已满时等待，且保存结果决定 Rabbit 消息是否确认；
+         * 非主存储队列已满时直接丢弃数据
+         */
+        private boolean primary = false;
+
+        /**
+         * 队列中最多等待写入的批次数量
+         */
+        private int queueSize = 64;
+
+        /**
+         * 写入线程数量
+         */
+        private int poolSize = 2;
+
+        /**
+         * 单次写入的最大数据数量，超出时拆分为多次写入
+         */
+        private int batchSize = 1000;
+
+        /**
+         * 写入失败处理策略
+         */
+        private FailurePolicy failurePolicy = FailurePolicy.RETRY;
+
+        /**
+         * 写入失败重试次数及首次重试间隔（毫秒），之后每次间隔翻倍
+         */
+        private int retryTimes = 3;
+        private long retryInterval = 500;
+    }
+
+    @Setter
+    @Getter
+    public static class SpoolProperty {
+        /**
+         * 暂存目录，每个 Repository 一个子目录
+         */
+        private String path = "dc3/spool/center/data";
+
+        /**
+         * 单个 Segment 文件大小（字节）及全部 Segment 最大占用（字节）
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+        private long maxSize = 1024L * 1024 * 1024;
+
+        /**
+         * 重放速率（每秒位号数据数量）及 Repository 不可用时的重放检查间隔（毫秒）
+         */
+        private double replayRate = 5000;
+        private long replayInterval = 5000;
+
+        /**
+         * 单条记录最多重放次数，超过后视为写入失败并跳过，避免一条无法写入的记录阻塞整个暂存
+         */
+        private int replayTimes = 100;
+
+        /**
+         * 暂存数据刷盘间隔（毫秒）
+         */
+        private long forceInterval = 1000;
+    }
+
+    public enum FailurePolicy {
+        /**
+         * 直接丢弃
+         */
+        DROP,
+
+        /**
+         * 重试 retryTimes 次后丢弃
+         */
+        RETRY,
+
+        /**
+         * 重试 retryTimes 次后写入本地暂存，Repository 恢复后重放
+         */
+        SPOOL
+    }
+}
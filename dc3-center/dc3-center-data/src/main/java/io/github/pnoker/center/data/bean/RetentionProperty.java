@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.bean;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 数据中心配置文件 data.point.retention 字段内容，位号数据保留策略
+ * <p>
+ * 保留天数为 0 时表示永久保留；policies 按租户、模板覆盖默认保留天数，未配置的字段使用默认值。
+ *
+ * @author pnoker
+ */
+@Setter
+@Getter
+@ConfigurationProperties(prefix = "data.point.retention")
+public class RetentionProperty {
+
+    private boolean enable = false;
+
+    /**
+     * 清理任务执行间隔（秒）
+     */
+    private int interval = 3600;
+
+    /**
+     * 单次删除的最大数据数量，以及每秒最多删除的数据数量，避免影响数据写入
+     */
+    private int batchSize = 1000;
+    private int rate = 5000;
+
+    /**
+     * 默认保留天数：原始数据，1 分钟、1 小时、1 天汇总数据
+     */
+    private int raw = 30;
+    private int minute = 90;
+    private int hour = 730;
+    private int day = 0;
+
+    private List<Policy> policies = new ArrayList<>();
+
+    /**
+     * 获取设备的保留策略，依次匹配租户与模板均符合、仅模板符合、仅租户符合的策略，都不符合时使用默认策略
+     *
+     * @param tenantId   Tenant Id，可为 null
+     * @param profileIds Profile Id Set，可为 null
+     * @return Policy
+     */
+    public Policy getPolicy(String tenantId, Set<String> profileIds) {
+        Policy profileMatch = null;
+        Policy tenantMatch = null;
+        for (Policy policy : policies) {
+            boolean tenant = null != policy.tenantId && policy.tenantId.equals(tenantId);
+            boolean profile = null != policy.profileId && null != profileIds && profileIds.contains(policy.profileId);
+            if (tenant && profile) {
+                return merge(policy);
+            }
+            if (profile && null == policy.tenantId && null == profileMatch) {
+                profileMatch = policy;
+            }
+            if (tenant && null == policy.profileId && null == tenantMatch) {
+                tenantMatch = policy;
+            }
+        }
+        return merge(null != profileMatch ? profileMatch : tenantMatch);
+    }
+
+    private Policy merge(Policy policy) {
+        Policy merged = new Policy();
+        merged.raw = null != policy && null != policy.raw ? policy.raw : raw;
+        merged.minute = null != policy && null != policy.minute ? policy.minute : minute;
+        merged.hour = null != policy && null != policy.hour ? policy.hour : hour;
+        merged.day = null != policy && null != policy.day ? policy.day : day;
+        return merged;
+    }
+
+    @Setter
+    @Getter
+    public static class Policy {
+        /**
+         * 匹配的租户与模板，均为空的策略不会被匹配
+         */
+        private String tenantId;
+        private String profileId;
+
+        private Integer raw;
+        private Integer minute;
+        private Integer hour;
+        private Integer day;
+    }
+}
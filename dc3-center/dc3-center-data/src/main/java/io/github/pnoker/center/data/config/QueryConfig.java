@@ -0,0 +1,59 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Query Configuration
+ * <p>
+ * 位号数据查询使用独立线程池，避免大量查询占用公共线程池或 ForkJoinPool.commonPool，
+ * 线程池与队列均有上限，队列已满时由调用线程执行。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Configuration
+public class QueryConfig {
+
+    @Value("${data.point.query.pool-size}")
+    private Integer poolSize;
+    @Value("${data.point.query.queue-size}")
+    private Integer queueSize;
+
+    private final AtomicInteger queryThreadAtomic = new AtomicInteger(1);
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor queryThreadPoolExecutor() {
+        return new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                (r) -> new Thread(r, "[Q]dc3-point-value-query-" + queryThreadAtomic.getAndIncrement()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+}
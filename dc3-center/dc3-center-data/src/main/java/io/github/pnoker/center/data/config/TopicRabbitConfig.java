@@ -17,6 +17,7 @@
 package io.github.pnoker.center.data.config;
 
 import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.converter.PointValueMessageConverter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
@@ -24,6 +25,7 @@ import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.RabbitListenerContainerFactory;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -38,6 +40,15 @@ import java.util.Map;
 @Configuration
 public class TopicRabbitConfig {
 
+    @Value("${data.point.batch.size}")
+    private Integer batchSize;
+    @Value("${data.point.batch.pending}")
+    private Integer maxPending;
+    @Value("${data.point.receive.concurrency.min}")
+    private Integer minConsumers;
+    @Value("${data.point.receive.concurrency.max}")
+    private Integer maxConsumers;
+
     @Resource
     private ConnectionFactory connectionFactory;
 
@@ -59,11 +70,14 @@ public class TopicRabbitConfig {
 
     @Bean
     public RabbitListenerContainerFactory<?> rabbitListenerContainerFactory() {
-        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
-        factory.setConnectionFactory(connectionFactory);
-        factory.setMessageConverter(new Jackson2JsonMessageConverter());
-        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
-        return factory;
+        // 全部消费者未确认的消息数量与允许同时保存的数据数量相当
+        return listenerContainerFactory(Math.max(1, batchSize * maxPending / maxConsumers));
+    }
+
+    @Bean
+    public RabbitListenerContainerFactory<?> pointValuesListenerContainerFactory() {
+        // 批量消息中最多包含 DEFAULT_MAX_VALUE_BATCH_SIZE 个位号数据，按数据数量折算预取消息数量
+        return listenerContainerFactory(Math.max(1, batchSize * maxPending / maxConsumers / CommonConstant.Driver.DEFAULT_MAX_VALUE_BATCH_SIZE));
     }
 
     @Bean
@@ -87,4 +101,31 @@ public class TopicRabbitConfig {
                 .with(CommonConstant.Rabbit.ROUTING_POINT_VALUE_PREFIX + CommonConstant.Symbol.ASTERISK);
     }
 
+    @Bean
+    Queue pointValuesQueue() {
+        Map<String, Object> arguments = new HashMap<>();
+        // 30天： 30 * 24 * 60 * 60 * 1000 = 2592000000L
+        arguments.put(CommonConstant.Rabbit.MESSAGE_TTL, 2592000000L);
+        return new Queue(CommonConstant.Rabbit.QUEUE_POINT_VALUES, true, false, false, arguments);
+    }
+
+    @Bean
+    Binding pointValuesBinding(TopicExchange valueExchange, Queue pointValuesQueue) {
+        return BindingBuilder
+                .bind(pointValuesQueue)
+                .to(valueExchange)
+                .with(CommonConstant.Rabbit.ROUTING_POINT_VALUES_PREFIX + CommonConstant.Symbol.ASTERISK);
+    }
+
+    private SimpleRabbitListenerContainerFactory listenerContainerFactory(int prefetchCount) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        // 根据 Content Type 接收 Json 或二进制格式的位号数据
+        factory.setMessageConverter(new PointValueMessageConverter());
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(prefetchCount);
+        factory.setConcurrentConsumers(minConsumers);
+        return factory;
+    }
+
 }
@@ -16,9 +16,14 @@
 
 package io.github.pnoker.center.data.init;
 
+import io.github.pnoker.center.data.bean.FilterProperty;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.center.data.bean.RepositoryProperty;
+import io.github.pnoker.center.data.bean.RetentionProperty;
 import io.github.pnoker.center.data.service.ScheduleService;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.stereotype.Component;
@@ -35,6 +40,7 @@ import javax.annotation.Resource;
 @ComponentScan(basePackages = {
         "io.github.pnoker.api.center.manager"
 })
+@EnableConfigurationProperties({RepositoryProperty.class, MongoProperty.class, RetentionProperty.class, FilterProperty.class})
 public class DataInitRunner implements ApplicationRunner {
 
     @Resource
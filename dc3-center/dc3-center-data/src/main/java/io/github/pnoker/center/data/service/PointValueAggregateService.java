@@ -0,0 +1,47 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.bean.point.PointValueAggregate;
+import io.github.pnoker.common.dto.PointValueAggregateDto;
+
+import java.util.List;
+
+/**
+ * 位号数据聚合、降采样 Interface
+ *
+ * @author pnoker
+ */
+public interface PointValueAggregateService {
+
+    /**
+     * 按时间间隔聚合位号数据，返回每个时间间隔的 count、avg、min、max、first、last
+     *
+     * @param pointValueAggregateDto PointValueAggregateDto
+     * @return PointValueAggregate Array
+     */
+    List<PointValueAggregate> aggregate(PointValueAggregateDto pointValueAggregateDto);
+
+    /**
+     * 使用 LTTB 算法降采样位号数据，保留数据走势与峰谷
+     *
+     * @param pointValueAggregateDto PointValueAggregateDto
+     * @return PointValue Array
+     */
+    List<PointValue> downsample(PointValueAggregateDto pointValueAggregateDto);
+}
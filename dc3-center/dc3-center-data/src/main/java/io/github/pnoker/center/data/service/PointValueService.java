@@ -17,10 +17,12 @@
 package io.github.pnoker.center.data.service;
 
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import io.github.pnoker.common.bean.CursorPage;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.dto.PointValueDto;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author pnoker
@@ -38,8 +40,9 @@ public interface PointValueService {
      * 批量新增 PointValue
      *
      * @param pointValues PointValue Array
+     * @return CompletableFuture，数据保存完成后完成
      */
-    void savePointValues(List<PointValue> pointValues);
+    CompletableFuture<Void> savePointValues(List<PointValue> pointValues);
 
     /**
      * 获取带分页、排序
@@ -57,4 +60,12 @@ public interface PointValueService {
      */
     Page<PointValue> list(PointValueDto pointValueDto,String tenantId);
 
+    /**
+     * 游标分页查询，按时间倒序
+     *
+     * @param pointValueDto PointValueDto
+     * @return CursorPage<PointValue>
+     */
+    CursorPage<PointValue> cursor(PointValueDto pointValueDto, String tenantId);
+
 }
@@ -19,6 +19,7 @@ package io.github.pnoker.center.data.service;
 import io.github.pnoker.common.bean.point.PointValue;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 用户自定义数据处理服务接口
@@ -38,7 +39,8 @@ public interface RepositoryHandleService {
      * 自定义数据处理，此处可以自定义逻辑，将数据存放到别的数据库，或者发送到别的地方
      *
      * @param pointValues PointValue Array
+     * @return CompletableFuture，数据保存到 Redis & Mongo 后完成，任意一个保存失败则异常完成
      */
-    void save(List<PointValue> pointValues);
+    CompletableFuture<Void> save(List<PointValue> pointValues);
 
 }
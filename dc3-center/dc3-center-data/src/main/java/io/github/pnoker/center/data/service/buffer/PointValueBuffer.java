@@ -0,0 +1,231 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.buffer;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 位号数据接收缓冲区
+ * <p>
+ * 按设备ID分片，每个分片是一个无锁队列，Rabbit 消费线程并发写入时不会竞争同一把锁；
+ * 同一设备的数据总是落在同一分片，因此取出时仍保持设备内的接收顺序。
+ * <p>
+ * 缓冲区容量有上限，写满后写入线程会等待批量保存任务取出数据，避免堆内存无限增长。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueBuffer implements InitializingBean {
+
+    @Value("${data.point.batch.shard:16}")
+    private Integer shardCount;
+    @Value("${data.point.batch.size}")
+    private Integer batchSize;
+    @Value("${data.point.batch.capacity}")
+    private Integer capacity;
+
+    private Shard[] shards;
+    private int mask;
+
+    /**
+     * 下次取出数据的起始分片，每次取出后轮换，避免编号靠前的分片数据较多时其余分片一直取不到
+     */
+    private final AtomicInteger cursor = new AtomicInteger(0);
+
+    /**
+     * 缓冲区中最早一个未取出数据的写入时间，为 0 时表示缓冲区为空
+     */
+    private final AtomicLong firstOfferTime = new AtomicLong(0);
+    private volatile Thread waiter;
+
+    /**
+     * 写入位号数据，缓冲区已满时等待直到有空闲容量
+     *
+     * @param pointValue PointValue
+     */
+    public void offer(PointValue pointValue) {
+        offer(pointValue, null);
+    }
+
+    /**
+     * 写入位号数据，并关联其所在的 Rabbit 消息，数据保存完成后由 PointValueFlusher 确认该消息
+     *
+     * @param pointValue PointValue
+     * @param delivery   PointValueDelivery，为 null 时表示无需确认
+     */
+    public void offer(PointValue pointValue, PointValueDelivery delivery) {
+        while (size() >= capacity) {
+            signal();
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        shard(pointValue.getDeviceId()).offer(new Entry(pointValue, delivery));
+        firstOfferTime.compareAndSet(0, System.currentTimeMillis());
+        if (size() >= batchSize) {
+            signal();
+        }
+    }
+
+    /**
+     * 等待数据达到批量大小，最多等待 nanos 纳秒
+     *
+     * @param nanos Nanos
+     */
+    public void await(long nanos) {
+        waiter = Thread.currentThread();
+        if (size() < batchSize) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        waiter = null;
+    }
+
+    /**
+     * 缓冲区中最早一个未取出数据已等待的毫秒数，缓冲区为空时返回 0
+     *
+     * @return long
+     */
+    public long age() {
+        long time = firstOfferTime.get();
+        return time > 0 ? System.currentTimeMillis() - time : 0;
+    }
+
+    /**
+     * 取出当前缓冲区中的全部位号数据
+     *
+     * @return PointValue Array
+     */
+    public List<PointValue> drain() {
+        return drain(Integer.MAX_VALUE);
+    }
+
+    /**
+     * 取出当前缓冲区中最多 max 个位号数据，从轮换的起始分片开始依次从各分片中取出
+     *
+     * @param max Max Size
+     * @return PointValue Array
+     */
+    public List<PointValue> drain(int max) {
+        return drain(max, null);
+    }
+
+    /**
+     * 取出当前缓冲区中最多 max 个位号数据，并将每个数据关联的 Rabbit 消息依次放入 deliveries
+     *
+     * @param max        Max Size
+     * @param deliveries PointValueDelivery Array，为 null 时忽略关联的消息
+     * @return PointValue Array
+     */
+    public List<PointValue> drain(int max, List<PointValueDelivery> deliveries) {
+        List<PointValue> pointValues = new ArrayList<>(Math.min(max, size()));
+        int start = cursor.getAndIncrement();
+        for (int i = 0; i < shards.length && pointValues.size() < max; i++) {
+            shards[(start + i) & mask].drainTo(pointValues, deliveries, max);
+        }
+
+        // 缓冲区取空后重置等待时间，未取空时保留原时间，剩余数据会尽早被取出
+        if (size() == 0) {
+            firstOfferTime.set(0);
+            if (size() > 0) {
+                firstOfferTime.compareAndSet(0, System.currentTimeMillis());
+            }
+        }
+        return pointValues;
+    }
+
+    /**
+     * 当前缓冲区中的位号数据数量
+     *
+     * @return int
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size.get();
+        }
+        return size;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        int count = Integer.highestOneBit(Math.max(1, shardCount - 1) << 1);
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        mask = count - 1;
+        log.debug("Point value buffer shard count: {}", count);
+    }
+
+    private void signal() {
+        Thread thread = waiter;
+        if (null != thread) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private Shard shard(String deviceId) {
+        int hash = deviceId.hashCode();
+        return shards[(hash ^ (hash >>> 16)) & mask];
+    }
+
+    /**
+     * 缓冲区分片，多生产者单消费者
+     */
+    private static class Shard {
+        private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        void offer(Entry entry) {
+            queue.offer(entry);
+            size.incrementAndGet();
+        }
+
+        void drainTo(List<PointValue> pointValues, List<PointValueDelivery> deliveries, int max) {
+            Entry entry;
+            while (pointValues.size() < max && null != (entry = queue.poll())) {
+                size.decrementAndGet();
+                pointValues.add(entry.pointValue);
+                if (null != deliveries && null != entry.delivery) {
+                    deliveries.add(entry.delivery);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final PointValue pointValue;
+        private final PointValueDelivery delivery;
+
+        Entry(PointValue pointValue, PointValueDelivery delivery) {
+            this.pointValue = pointValue;
+            this.delivery = delivery;
+        }
+    }
+}
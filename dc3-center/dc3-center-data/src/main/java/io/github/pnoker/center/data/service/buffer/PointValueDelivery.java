@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.buffer;
+
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一条尚未确认的 Rabbit 消息
+ * <p>
+ * 消息中的全部位号数据都保存完成后才会 ack，任意一个保存失败则 nack 并重新入队，由 Broker 重新投递。
+ *
+ * @author pnoker
+ */
+@Slf4j
+public class PointValueDelivery {
+
+    private final Channel channel;
+    private final long deliveryTag;
+    private final AtomicInteger remaining;
+    private volatile boolean failed = false;
+
+    public PointValueDelivery(Channel channel, long deliveryTag, int size) {
+        this.channel = channel;
+        this.deliveryTag = deliveryTag;
+        this.remaining = new AtomicInteger(size);
+    }
+
+    /**
+     * 消息中的一个位号数据处理完成
+     *
+     * @param success 是否保存成功
+     */
+    public void complete(boolean success) {
+        if (!success) {
+            failed = true;
+        }
+        if (remaining.decrementAndGet() != 0) {
+            return;
+        }
+
+        try {
+            if (failed) {
+                channel.basicNack(deliveryTag, false, true);
+            } else {
+                channel.basicAck(deliveryTag, false);
+            }
+        } catch (Exception e) {
+            log.error("Acknowledge point value delivery({}) error: {}", deliveryTag, e.getMessage());
+        }
+    }
+}
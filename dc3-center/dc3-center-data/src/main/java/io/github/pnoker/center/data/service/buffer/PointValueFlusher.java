@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.buffer;
+
+import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.common.bean.point.PointValue;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 位号数据批量保存
+ * <p>
+ * 缓冲区中的数据达到 data.point.batch.size 个，或最早的数据已等待 data.point.batch.timeout 毫秒时，
+ * 取出一批数据保存到 Repository，保证批量大小有上限且数据等待时间可预期。
+ * <p>
+ * 同时保存中的批次最多 data.point.batch.pending 个，超过后等待已有批次保存完成；
+ * 批次保存完成后确认其中位号数据所在的 Rabbit 消息。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueFlusher implements InitializingBean, DisposableBean {
+
+    @Value("${data.point.batch.size}")
+    private Integer batchSize;
+    @Value("${data.point.batch.timeout}")
+    private Long timeout;
+    @Value("${data.point.batch.pending}")
+    private Integer maxPending;
+
+    @Resource
+    private PointValueBuffer pointValueBuffer;
+    @Resource
+    private PointValueService pointValueService;
+
+    private volatile boolean running = true;
+    private Thread thread;
+    private Semaphore pending;
+
+    /**
+     * 正在保存中的批次数量
+     *
+     * @return int
+     */
+    public int pending() {
+        return maxPending - pending.availablePermits();
+    }
+
+    /**
+     * 允许同时保存中的最大批次数量
+     *
+     * @return int
+     */
+    public int maxPending() {
+        return maxPending;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        pending = new Semaphore(maxPending);
+        thread = new Thread(this::run, "dc3-point-value-flusher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        thread.interrupt();
+        thread.join(TimeUnit.SECONDS.toMillis(5));
+
+        // Save the remaining point value before shutdown
+        while (pointValueBuffer.size() > 0) {
+            flush();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long age = pointValueBuffer.age();
+                if (pointValueBuffer.size() >= batchSize || (age > 0 && age >= timeout)) {
+                    flush();
+                    continue;
+                }
+
+                long wait = age > 0 ? timeout - age : timeout;
+                pointValueBuffer.await(TimeUnit.MILLISECONDS.toNanos(wait));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Point value flusher error: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void flush() throws InterruptedException {
+        pending.acquire();
+
+        List<PointValueDelivery> deliveries = new ArrayList<>();
+        List<PointValue> pointValues = pointValueBuffer.drain(batchSize, deliveries);
+        if (pointValues.isEmpty()) {
+            pending.release();
+            return;
+        }
+
+        log.debug("Flush point value, size: {}, remaining: {}, pending: {}", pointValues.size(), pointValueBuffer.size(), pending());
+        try {
+            pointValueService.savePointValues(pointValues).whenComplete((r, e) -> {
+                pending.release();
+                deliveries.forEach(delivery -> delivery.complete(null == e));
+            });
+        } catch (Exception e) {
+            pending.release();
+            deliveries.forEach(delivery -> delivery.complete(false));
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 进程内位号最近数据的压缩窗口
+ * <p>
+ * 保存成功的历史数值数据同时按位号压缩保存最近 data.point.hot-window.span 毫秒，保存失败的数据不会写入，重新投递时不会重复；
+ * 查询范围完全落在窗口内的历史查询直接从内存返回，不再查询 Mongo。
+ * 总内存不超过 data.point.hot-window.max-memory 字节，超出后淘汰较少写入与查询的位号，
+ * 超过 span 毫秒没有新数据的位号同样被淘汰。
+ * <p>
+ * 窗口只包含本实例收到的数据，多个实例共同消费同一设备的数据时不能开启。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueHotWindow implements InitializingBean {
+
+    @Value("${data.point.hot-window.enable}")
+    private Boolean enable;
+    @Value("${data.point.hot-window.span}")
+    private Long span;
+    @Value("${data.point.hot-window.max-memory}")
+    private Long maxMemory;
+    @Value("${data.point.hot-window.block-size}")
+    private Integer blockSize;
+
+    @Resource
+    private MongoProperty mongoProperty;
+
+    private Cache<String, PointValueSeries> cache;
+
+    /**
+     * 写入位号数据，同一位号的数据需要按时间顺序写入
+     *
+     * @param pointValues PointValue Array
+     */
+    public void put(List<PointValue> pointValues) {
+        if (!enable) {
+            return;
+        }
+
+        Map<String, List<PointValue>> group = pointValues.stream()
+                .filter(pointValue -> null != pointValue.getDeviceId() && null != pointValue.getPointId() && null != time(pointValue))
+                .collect(Collectors.groupingBy(pointValue -> key(pointValue.getDeviceId(), pointValue.getPointId()), LinkedHashMap::new, Collectors.toList()));
+
+        // 在 compute 中写入，使 Caffeine 重新计算位号占用的内存
+        group.forEach((key, values) -> cache.asMap().compute(key, (k, series) -> {
+            PointValueSeries target = null != series ? series : new PointValueSeries(blockSize, time(values.get(0)).getTime());
+            for (PointValue pointValue : values) {
+                Date other = isCreateTime() ? pointValue.getOriginTime() : pointValue.getCreateTime();
+                target.append(time(pointValue).getTime(), null != other ? other.getTime() : null, pointValue.getValue(), pointValue.getRawValue());
+            }
+            target.trim(target.lastTime() - span);
+            return target;
+        }));
+    }
+
+    /**
+     * 查询时间在 [startTime, endTime] 内的位号数据
+     *
+     * @param deviceId  Device Id
+     * @param pointId   Point Id
+     * @param startTime Start Time
+     * @param endTime   End Time
+     * @return PointValue Array，按时间倒序，查询范围不在窗口内时返回 null
+     */
+    public List<PointValue> range(String deviceId, String pointId, long startTime, long endTime) {
+        PointValueSeries series = series(deviceId, pointId);
+        if (null == series) {
+            return null;
+        }
+
+        List<PointValueSeries.Sample> samples = series.read(startTime, endTime);
+        if (null == samples) {
+            return null;
+        }
+
+        List<PointValue> pointValues = new ArrayList<>(samples.size());
+        for (int i = samples.size() - 1; i >= 0; i--) {
+            pointValues.add(pointValue(deviceId, pointId, samples.get(i)));
+        }
+        return pointValues;
+    }
+
+    /**
+     * 查询位号最近 size 个历史值
+     *
+     * @param deviceId Device Id
+     * @param pointId  Point Id
+     * @param size     Size
+     * @return 历史值，按时间倒序，窗口内数据不足时返回 null
+     */
+    public List<String> latest(String deviceId, String pointId, int size) {
+        PointValueSeries series = series(deviceId, pointId);
+        if (null == series) {
+            return null;
+        }
+
+        List<PointValueSeries.Sample> samples = series.latest(size);
+        if (null == samples) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>(samples.size());
+        for (int i = samples.size() - 1; i >= 0; i--) {
+            values.add(samples.get(i).getValue());
+        }
+        return values;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxMemory)
+                .weigher((String key, PointValueSeries series) -> series.weight())
+                .expireAfterWrite(span, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private PointValueSeries series(String deviceId, String pointId) {
+        return enable ? cache.getIfPresent(key(deviceId, pointId)) : null;
+    }
+
+    private PointValue pointValue(String deviceId, String pointId, PointValueSeries.Sample sample) {
+        PointValue pointValue = new PointValue();
+        pointValue.setDeviceId(deviceId);
+        pointValue.setPointId(pointId);
+        pointValue.setValue(sample.getValue());
+        pointValue.setRawValue(sample.getRawValue());
+        pointValue.setOriginTime(new Date(isCreateTime() ? sample.getOther() : sample.getTime()));
+        pointValue.setCreateTime(new Date(isCreateTime() ? sample.getTime() : sample.getOther()));
+        return pointValue;
+    }
+
+    /**
+     * 按历史查询使用的排序时间保存，与 Mongo 中的排序字段一致
+     */
+    private boolean isCreateTime() {
+        return "createTime".equals(mongoProperty.getTimeField());
+    }
+
+    private Date time(PointValue pointValue) {
+        return isCreateTime() ? pointValue.getCreateTime() : pointValue.getOriginTime();
+    }
+
+    private String key(String deviceId, String pointId) {
+        return deviceId + CommonConstant.Symbol.DOT + pointId;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内位号最新数据缓存
+ * <p>
+ * 接收到的位号数据直接写入，查询最新数据时优先读取，未命中时再读取 Redis。
+ * 多个实例共同消费时，本实例只收到部分数据，因此缓存条目在 data.point.cache.expire 毫秒后失效，
+ * 由 Redis 中其他实例写入的数据补充；同一位号只保留 originTime 最新的数据。
+ * <p>
+ * 写入与读取时均使用副本，调用方修改位号数据不会影响缓存。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueNearCache implements InitializingBean {
+
+    @Value("${data.point.cache.size}")
+    private Long size;
+    @Value("${data.point.cache.expire}")
+    private Long expire;
+
+    private Cache<String, PointValue> cache;
+
+    /**
+     * 写入位号数据，缓存中已有更新的数据时忽略
+     *
+     * @param pointValues PointValue Array
+     */
+    public void put(List<PointValue> pointValues) {
+        for (PointValue pointValue : pointValues) {
+            put(pointValue);
+        }
+    }
+
+    /**
+     * 写入位号数据，缓存中已有更新的数据时忽略
+     *
+     * @param pointValue PointValue
+     */
+    public void put(PointValue pointValue) {
+        if (null == pointValue.getDeviceId() || null == pointValue.getPointId()) {
+            return;
+        }
+
+        cache.asMap().merge(key(pointValue.getDeviceId(), pointValue.getPointId()), copy(pointValue), (older, newer) -> isNewer(newer, older) ? newer : older);
+    }
+
+    /**
+     * 读取位号最新数据，未命中的位号放入 misses
+     *
+     * @param deviceId Device Id
+     * @param pointIds Point Id Array
+     * @param misses   未命中的 Point Id Array
+     * @return PointValue Array
+     */
+    public List<PointValue> get(String deviceId, List<String> pointIds, List<String> misses) {
+        List<PointValue> pointValues = new ArrayList<>(pointIds.size());
+        for (String pointId : pointIds) {
+            PointValue pointValue = cache.getIfPresent(key(deviceId, pointId));
+            if (null != pointValue) {
+                pointValues.add(copy(pointValue));
+            } else {
+                misses.add(pointId);
+            }
+        }
+        return pointValues;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expire, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    private String key(String deviceId, String pointId) {
+        return deviceId + CommonConstant.Symbol.DOT + pointId;
+    }
+
+    private boolean isNewer(PointValue pointValue, PointValue other) {
+        Date time = null != pointValue.getOriginTime() ? pointValue.getOriginTime() : pointValue.getCreateTime();
+        Date otherTime = null != other.getOriginTime() ? other.getOriginTime() : other.getCreateTime();
+        return null == otherTime || (null != time && !time.before(otherTime));
+    }
+
+    private PointValue copy(PointValue pointValue) {
+        PointValue copy = new PointValue();
+        copy.setId(pointValue.getId());
+        copy.setDeviceId(pointValue.getDeviceId());
+        copy.setPointId(pointValue.getPointId());
+        copy.setValue(pointValue.getValue());
+        copy.setRawValue(pointValue.getRawValue());
+        copy.setChildren(null != pointValue.getChildren() ? new ArrayList<>(pointValue.getChildren()) : null);
+        copy.setOriginTime(pointValue.getOriginTime());
+        copy.setCreateTime(pointValue.getCreateTime());
+        return copy;
+    }
+}
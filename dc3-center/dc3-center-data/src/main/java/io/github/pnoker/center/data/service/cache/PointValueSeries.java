@@ -0,0 +1,433 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * 单个位号最近一段时间的压缩数据
+ * <p>
+ * 按 Gorilla 算法压缩：时间保存为二阶差分，另一个时间保存为与该时间之差的一阶差分，数值保存为与上一个数值的异或，
+ * 同时保存小数位数，解码后的字符串与原字符串一致。每 blockSize 个数据封存为一个数据块，过期时整块淘汰。
+ * <p>
+ * coverStart 之后的数据在本实例中是完整的，无法无损压缩的数据或乱序到达的数据不会写入，并将 coverStart 推后。
+ *
+ * @author pnoker
+ */
+public class PointValueSeries {
+
+    private static final int MAX_SCALE = 31;
+
+    private final int blockSize;
+    private final Deque<Block> blocks = new ArrayDeque<>();
+    private Block current;
+
+    private long coverStart;
+    private long lastTime = Long.MIN_VALUE;
+    private int count = 0;
+
+    public PointValueSeries(int blockSize, long coverStart) {
+        this.blockSize = blockSize;
+        this.coverStart = coverStart;
+    }
+
+    /**
+     * 写入数据，时间需要不早于上一个数据
+     *
+     * @param time     排序时间
+     * @param other    另一个时间，可为 null
+     * @param value    Value
+     * @param rawValue Raw Value
+     */
+    public synchronized void append(long time, Long other, String value, String rawValue) {
+        Decimal decimal = Decimal.parse(value);
+        Decimal raw = Objects.equals(value, rawValue) ? decimal : Decimal.parse(rawValue);
+        if (time < lastTime || null == other || null == decimal || null == raw) {
+            coverStart = Math.max(coverStart, time + 1);
+            return;
+        }
+
+        if (null == current) {
+            current = new Block();
+        }
+        current.append(time, other, decimal, raw == decimal ? null : raw);
+        lastTime = time;
+        count++;
+
+        if (current.count >= blockSize) {
+            current.seal();
+            blocks.addLast(current);
+            current = null;
+        }
+    }
+
+    /**
+     * 淘汰最后一个数据早于 before 的数据块
+     *
+     * @param before Time
+     */
+    public synchronized void trim(long before) {
+        while (!blocks.isEmpty() && blocks.peekFirst().lastTime < before) {
+            Block block = blocks.pollFirst();
+            coverStart = Math.max(coverStart, block.lastTime + 1);
+            count -= block.count;
+        }
+    }
+
+    /**
+     * 读取时间在 [startTime, endTime] 内的数据，按时间正序
+     *
+     * @param startTime Start Time
+     * @param endTime   End Time
+     * @return Sample Array，startTime 早于 coverStart 时返回 null
+     */
+    public synchronized List<Sample> read(long startTime, long endTime) {
+        if (startTime < coverStart) {
+            return null;
+        }
+
+        List<Sample> samples = new ArrayList<>();
+        for (Block block : blocks()) {
+            if (block.lastTime >= startTime && block.firstTime <= endTime) {
+                block.read(startTime, endTime, samples);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 读取最新的 size 个数据，按时间正序
+     *
+     * @param size Size
+     * @return Sample Array，数据不足或不完整时返回 null
+     */
+    public synchronized List<Sample> latest(int size) {
+        List<Block> blocks = blocks();
+        List<Block> selected = new LinkedList<>();
+        int selectedCount = 0;
+        for (int i = blocks.size() - 1; i >= 0 && selectedCount < size; i--) {
+            selected.add(0, blocks.get(i));
+            selectedCount += blocks.get(i).count;
+        }
+        if (selectedCount < size) {
+            return null;
+        }
+
+        List<Sample> samples = new ArrayList<>(selectedCount);
+        for (Block block : selected) {
+            block.read(Long.MIN_VALUE, Long.MAX_VALUE, samples);
+        }
+        samples = samples.subList(samples.size() - size, samples.size());
+        return samples.isEmpty() || samples.get(0).getTime() >= coverStart ? samples : null;
+    }
+
+    /**
+     * 最新数据的时间
+     *
+     * @return long
+     */
+    public synchronized long lastTime() {
+        return lastTime;
+    }
+
+    /**
+     * 估算占用的内存字节数
+     *
+     * @return int
+     */
+    public synchronized int weight() {
+        int weight = 64;
+        for (Block block : blocks()) {
+            weight += 64 + block.words.length * 8;
+        }
+        return weight;
+    }
+
+    private List<Block> blocks() {
+        List<Block> list = new ArrayList<>(blocks.size() + 1);
+        list.addAll(blocks);
+        if (null != current) {
+            list.add(current);
+        }
+        return list;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Sample {
+        private final long time;
+        private final long other;
+        private final String value;
+        private final String rawValue;
+    }
+
+    /**
+     * 数值与小数位数，只有按小数位数格式化后与原字符串一致的数值才能无损保存
+     */
+    private static class Decimal {
+        private final double number;
+        private final int scale;
+
+        Decimal(double number, int scale) {
+            this.number = number;
+            this.scale = scale;
+        }
+
+        static Decimal parse(String text) {
+            if (null == text) {
+                return null;
+            }
+
+            try {
+                BigDecimal decimal = new BigDecimal(text);
+                int scale = decimal.scale();
+                if (scale < 0 || scale > MAX_SCALE) {
+                    return null;
+                }
+                double number = decimal.doubleValue();
+                return format(number, scale).equals(text) ? new Decimal(number, scale) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        static String format(double number, int scale) {
+            return BigDecimal.valueOf(number).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+        }
+    }
+
+    /**
+     * 异或压缩的状态，编码与解码各自维护
+     */
+    private static class XorState {
+        private long bits = 0;
+        private int leading = -1;
+        private int trailing = 0;
+        private int scale = -1;
+    }
+
+    private static class Block {
+        private long[] words = new long[16];
+        private int position = 0;
+        private int count = 0;
+        private long firstTime;
+        private long lastTime;
+
+        private long delta;
+        private long offset;
+        private XorState value = new XorState();
+        private XorState raw = new XorState();
+
+        void append(long time, long other, Decimal decimal, Decimal rawDecimal) {
+            if (count == 0) {
+                firstTime = time;
+                write(time, 64);
+                write(other - time, 64);
+            } else {
+                long newDelta = time - lastTime;
+                writeDelta(newDelta - delta);
+                writeDelta(other - time - offset);
+                delta = newDelta;
+            }
+            offset = other - time;
+            lastTime = time;
+
+            writeDecimal(decimal, value);
+            if (null == rawDecimal) {
+                write(0, 1);
+            } else {
+                write(1, 1);
+                writeDecimal(rawDecimal, raw);
+            }
+            count++;
+        }
+
+        /**
+         * 封存后不再写入，释放多余的空间与编码状态
+         */
+        void seal() {
+            words = Arrays.copyOf(words, (position + 63) >>> 6);
+            value = null;
+            raw = null;
+        }
+
+        void read(long startTime, long endTime, List<Sample> samples) {
+            Reader reader = new Reader(words);
+            XorState valueState = new XorState();
+            XorState rawState = new XorState();
+            long time = 0;
+            long timeDelta = 0;
+            long timeOffset = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    time = reader.read(64);
+                    timeOffset = reader.read(64);
+                } else {
+                    timeDelta += reader.readDelta();
+                    time += timeDelta;
+                    timeOffset += reader.readDelta();
+                }
+                String decimal = reader.readDecimal(valueState);
+                String rawDecimal = reader.read(1) == 0 ? decimal : reader.readDecimal(rawState);
+                if (time > endTime) {
+                    break;
+                }
+                if (time >= startTime) {
+                    samples.add(new Sample(time, time + timeOffset, decimal, rawDecimal));
+                }
+            }
+        }
+
+        private void writeDelta(long delta) {
+            if (delta == 0) {
+                write(0, 1);
+            } else if (delta >= -64 && delta <= 63) {
+                write(0b10, 2);
+                write(delta, 7);
+            } else if (delta >= -256 && delta <= 255) {
+                write(0b110, 3);
+                write(delta, 9);
+            } else if (delta >= -2048 && delta <= 2047) {
+                write(0b1110, 4);
+                write(delta, 12);
+            } else {
+                write(0b1111, 4);
+                write(delta, 64);
+            }
+        }
+
+        private void writeDecimal(Decimal decimal, XorState state) {
+            if (decimal.scale == state.scale) {
+                write(0, 1);
+            } else {
+                write(1, 1);
+                write(decimal.scale, 5);
+                state.scale = decimal.scale;
+            }
+
+            long bits = Double.doubleToLongBits(decimal.number);
+            long xor = bits ^ state.bits;
+            state.bits = bits;
+            if (xor == 0) {
+                write(0, 1);
+                return;
+            }
+
+            write(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (state.leading >= 0 && leading >= state.leading && trailing >= state.trailing) {
+                write(0, 1);
+                write(xor >>> state.trailing, 64 - state.leading - state.trailing);
+            } else {
+                int length = 64 - leading - trailing;
+                write(1, 1);
+                write(leading, 5);
+                write(length - 1, 6);
+                write(xor >>> trailing, length);
+                state.leading = leading;
+                state.trailing = trailing;
+            }
+        }
+
+        /**
+         * 按高位在前写入 value 的低 size 位
+         */
+        private void write(long value, int size) {
+            while (size > 0) {
+                int index = position >>> 6;
+                if (index >= words.length) {
+                    words = Arrays.copyOf(words, words.length * 2);
+                }
+                int free = 64 - (position & 63);
+                int take = Math.min(free, size);
+                long chunk = (value >>> (size - take)) & mask(take);
+                words[index] |= chunk << (free - take);
+                position += take;
+                size -= take;
+            }
+        }
+    }
+
+    private static class Reader {
+        private final long[] words;
+        private int position = 0;
+
+        Reader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int size) {
+            long value = 0;
+            while (size > 0) {
+                int available = 64 - (position & 63);
+                int take = Math.min(available, size);
+                long chunk = (words[position >>> 6] >>> (available - take)) & mask(take);
+                value = take == 64 ? chunk : (value << take) | chunk;
+                position += take;
+                size -= take;
+            }
+            return value;
+        }
+
+        long readDelta() {
+            if (read(1) == 0) {
+                return 0;
+            }
+            if (read(1) == 0) {
+                return signed(read(7), 7);
+            }
+            if (read(1) == 0) {
+                return signed(read(9), 9);
+            }
+            if (read(1) == 0) {
+                return signed(read(12), 12);
+            }
+            return read(64);
+        }
+
+        String readDecimal(XorState state) {
+            if (read(1) == 1) {
+                state.scale = (int) read(5);
+            }
+
+            if (read(1) == 1) {
+                if (read(1) == 1) {
+                    state.leading = (int) read(5);
+                    int length = (int) read(6) + 1;
+                    state.trailing = 64 - state.leading - length;
+                }
+                state.bits ^= read(64 - state.leading - state.trailing) << state.trailing;
+            }
+            return Decimal.format(Double.longBitsToDouble(state.bits), state.scale);
+        }
+
+        private static long signed(long value, int size) {
+            return (value << (64 - size)) >> (64 - size);
+        }
+    }
+
+    private static long mask(int size) {
+        return size == 64 ? -1L : (1L << size) - 1;
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.filter;
+
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.pnoker.api.center.manager.feign.PointClient;
+import io.github.pnoker.center.data.bean.FilterProperty;
+import io.github.pnoker.common.bean.R;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.model.Point;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Clock;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 位号数据写入历史存储前的过滤
+ * <p>
+ * 按位号的过滤策略与上次保存的数据比较，未变化或变化未超过死区的数据不写入历史存储；
+ * 距离上次保存超过 heartbeat 毫秒时总是保存，保证历史数据中至少有周期性的记录。
+ * <p>
+ * 过滤状态在过滤时立即生效，同一位号同时处理中的多个批次依次基于前一个批次的状态过滤，旋转门压缩的偏差约束不会被打破。
+ * 历史存储写入失败时通过 rollback 回退：位号状态仍为该批次设置的状态时恢复为过滤前的状态，重新投递的数据按原状态过滤；
+ * 之后的批次已更新状态时，该批次保存的暂存数据放入待保存队列，由下次 flush 重新保存，不会丢失拐点。
+ * 过滤状态只保存在内存中，重启后每个位号的第一个数据总是保存；
+ * 旋转门压缩暂存的最新数据由 flush 取出保存：超过 heartbeat 毫秒没有新数据、状态被淘汰或停止服务时。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueFilter implements InitializingBean {
+
+    @Resource
+    private FilterProperty filterProperty;
+    @Resource
+    private PointClient pointClient;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final Cache<String, Point> pointCache = Caffeine.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private Cache<String, State> states;
+    private final Queue<PointValue> evicted = new ConcurrentLinkedQueue<>();
+    private Clock clock = Clock.systemDefaultZone();
+    private Counter passed;
+    private Counter filtered;
+
+    /**
+     * 过滤位号数据，需要写入历史存储的数据保持原有顺序，过滤状态立即生效
+     *
+     * @param pointValues PointValue Array
+     * @return Result
+     */
+    public Result filter(List<PointValue> pointValues) {
+        if (!filterProperty.isEnable()) {
+            return new Result(pointValues);
+        }
+
+        Map<String, Point> points = points(pointValues);
+        List<PointValue> results = new ArrayList<>(pointValues.size());
+        Result result = new Result(results);
+        synchronized (this) {
+            for (PointValue pointValue : pointValues) {
+                Point point = points.get(pointValue.getPointId());
+                FilterProperty.Policy policy = filterProperty.getPolicy(pointValue.getPointId(), null != point ? point.getProfileId() : null);
+                if (FilterProperty.Mode.NONE.equals(policy.getMode()) || StrUtil.isEmpty(pointValue.getPointId())) {
+                    results.add(pointValue);
+                    continue;
+                }
+
+                String key = key(pointValue);
+                State state = states.getIfPresent(key);
+                int size = results.size();
+                State next = accept(state, pointValue, point, policy, results);
+                if (next != state) {
+                    states.put(key, next);
+                    result.change(key, state, next);
+                }
+
+                // 先于当前数据保存的是之前批次暂存的数据
+                for (int index = size; index < results.size() && results.get(index) != pointValue; index++) {
+                    result.carry(key, results.get(index));
+                }
+            }
+        }
+
+        passed.increment(results.size());
+        return result;
+    }
+
+    /**
+     * 历史存储写入失败时回退过滤结果
+     * <p>
+     * 位号状态仍为该结果设置的状态时恢复为过滤前的状态，否则将该结果保存的暂存数据放入待保存队列；
+     * 结果中被淘汰状态的暂存数据同样放回待保存队列，下次 flush 时重新保存。
+     *
+     * @param result Result
+     */
+    public void rollback(Result result) {
+        synchronized (this) {
+            result.changes.forEach((key, change) -> {
+                if (states.getIfPresent(key) != change.next) {
+                    evicted.addAll(result.carried.getOrDefault(key, Collections.emptyList()));
+                } else if (null == change.previous) {
+                    states.invalidate(key);
+                } else {
+                    states.put(key, change.previous);
+                }
+            });
+        }
+        evicted.addAll(result.evicted);
+    }
+
+    /**
+     * 取出旋转门压缩中需要保存的暂存数据：超过 heartbeat 毫秒没有新数据的位号，以及被淘汰的过滤状态
+     *
+     * @param all 为 true 时取出全部暂存数据，用于停止服务前保存
+     * @return Result
+     */
+    public Result flush(boolean all) {
+        List<PointValue> results = new ArrayList<>();
+        Result result = new Result(results);
+        if (!filterProperty.isEnable()) {
+            return result;
+        }
+
+        PointValue evictedValue;
+        while (null != (evictedValue = evicted.poll())) {
+            result.evicted.add(evictedValue);
+        }
+        results.addAll(result.evicted);
+
+        long now = clock.millis();
+        synchronized (this) {
+            states.asMap().forEach((key, state) -> {
+                if (null != state.snapshot && (all || (state.heartbeat > 0 && now - state.heldAt >= state.heartbeat))) {
+                    State next = new State(state.snapshot.getValue(), state.snapshotTime, state.snapshotNumber);
+                    states.put(key, next);
+                    results.add(state.snapshot);
+                    result.change(key, state, next);
+                    result.carry(key, state.snapshot);
+                }
+            });
+        }
+
+        passed.increment(results.size());
+        return result;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        states = Caffeine.newBuilder()
+                .maximumSize(filterProperty.getStateSize())
+                .<String, State>removalListener((key, state, cause) -> {
+                    if (cause.wasEvicted() && null != state && null != state.snapshot) {
+                        evicted.add(state.snapshot);
+                    }
+                })
+                .build();
+        passed = Counter.builder("dc3.filter.passed").description("Point values written to historical repositories").register(meterRegistry);
+        filtered = Counter.builder("dc3.filter.filtered").description("Point values filtered before historical repositories").register(meterRegistry);
+    }
+
+    /**
+     * 判断位号数据是否需要保存，需要保存的数据依次放入 results，返回新的过滤状态
+     */
+    private State accept(State state, PointValue pointValue, Point point, FilterProperty.Policy policy, List<PointValue> results) {
+        Date date = null != pointValue.getOriginTime() ? pointValue.getOriginTime() : pointValue.getCreateTime();
+        long time = null != date ? date.getTime() : clock.millis();
+
+        // 乱序到达的数据直接保存，不影响过滤状态
+        if (null != state && time < state.latest()) {
+            results.add(pointValue);
+            return state;
+        }
+
+        if (FilterProperty.Mode.SWINGING_DOOR.equals(policy.getMode())) {
+            return swingingDoor(state, pointValue, time, policy, results);
+        }
+
+        if (null == state
+                || (policy.getHeartbeat() > 0 && time - state.time >= policy.getHeartbeat())
+                || changed(state.value, pointValue.getValue(), point, policy)) {
+            results.add(pointValue);
+            return new State(pointValue.getValue(), time);
+        }
+        filtered.increment();
+        return state;
+    }
+
+    /**
+     * 旋转门压缩
+     * <p>
+     * 以上次保存的数据为门轴，上下各偏移 deadband 作为两扇门，每收到一个数据就把两扇门向该数据旋转；
+     * 两扇门的斜率交错时说明已无法用一条直线在偏差内覆盖这段数据，此时保存上一个数据作为拐点并以其为新的门轴。
+     * 距离上次保存超过 heartbeat 毫秒时同样保存上一个数据。最新收到的数据暂存在状态中，
+     * 下一个数据到达或超过 heartbeat 毫秒没有新数据时由 flush 保存。
+     */
+    private State swingingDoor(State state, PointValue pointValue, long time, FilterProperty.Policy policy, List<PointValue> results) {
+        Double number = numeric(pointValue.getValue());
+        if (null == number) {
+            // 非数值数据先保存暂存的数据，再按数据变化保存
+            State last = state;
+            if (null != state && null != state.snapshot) {
+                results.add(state.snapshot);
+                last = new State(state.snapshot.getValue(), state.snapshotTime);
+            }
+            if (null == last
+                    || (policy.getHeartbeat() > 0 && time - last.time >= policy.getHeartbeat())
+                    || !Objects.equals(last.value, pointValue.getValue())) {
+                results.add(pointValue);
+                return new State(pointValue.getValue(), time);
+            }
+            filtered.increment();
+            return last;
+        }
+
+        if (null == state || null == state.number) {
+            results.add(pointValue);
+            return new State(pointValue.getValue(), time, number);
+        }
+
+        // 与暂存数据时间相同的数据直接保存，不参与斜率计算
+        if (time <= state.latest()) {
+            results.add(pointValue);
+            return state;
+        }
+
+        State current = state;
+        if (policy.getHeartbeat() > 0 && time - current.time >= policy.getHeartbeat()) {
+            if (null != current.snapshot) {
+                results.add(current.snapshot);
+                current = new State(current.snapshot.getValue(), current.snapshotTime, current.snapshotNumber);
+            }
+            if (time - current.time >= policy.getHeartbeat()) {
+                results.add(pointValue);
+                return new State(pointValue.getValue(), time, number);
+            }
+        }
+
+        double deviation = policy.getDeadband();
+        long span = time - current.time;
+        double upper = Math.max(current.upper, (number - current.number - deviation) / span);
+        double lower = Math.min(current.lower, (number - current.number + deviation) / span);
+        if (upper <= lower) {
+            if (null != current.snapshot) {
+                filtered.increment();
+            }
+            return new State(current, pointValue, time, number, upper, lower, clock.millis(), policy.getHeartbeat());
+        }
+
+        // 没有暂存数据时门无法以拐点为轴，直接保存当前数据作为新的门轴
+        if (null == current.snapshot) {
+            results.add(pointValue);
+            return new State(pointValue.getValue(), time, number);
+        }
+
+        // 门已关闭，暂存的数据即为拐点，以其为新的门轴继续压缩当前数据
+        results.add(current.snapshot);
+        State pivot = new State(current.snapshot.getValue(), current.snapshotTime, current.snapshotNumber);
+        span = time - pivot.time;
+        return new State(pivot, pointValue, time, number,
+                (number - pivot.number - deviation) / span,
+                (number - pivot.number + deviation) / span,
+                clock.millis(), policy.getHeartbeat());
+    }
+
+    /**
+     * 判断数据相对上次保存的数据是否变化，数值按死区判断，非数值按字符串判断
+     */
+    private boolean changed(String last, String value, Point point, FilterProperty.Policy policy) {
+        if (FilterProperty.Mode.CHANGE.equals(policy.getMode())) {
+            return !Objects.equals(last, value);
+        }
+
+        Double lastNumber = numeric(last);
+        Double number = numeric(value);
+        if (null == lastNumber || null == number) {
+            return !Objects.equals(last, value);
+        }
+
+        double deadband = policy.getDeadband();
+        if (FilterProperty.Mode.PERCENT.equals(policy.getMode())) {
+            double range = null != point && null != point.getMinimum() && null != point.getMaximum() ? point.getMaximum() - point.getMinimum() : 0;
+            deadband = (range > 0 ? range : Math.abs(lastNumber)) * deadband / 100;
+        }
+        return Math.abs(number - lastNumber) > deadband;
+    }
+
+    private Double numeric(String value) {
+        if (null == value) {
+            return null;
+        }
+
+        try {
+            double number = Double.parseDouble(value);
+            return Double.isFinite(number) ? number : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 查询位号，用于匹配模板策略与计算量程，查询失败时按默认策略过滤
+     */
+    private Map<String, Point> points(List<PointValue> pointValues) {
+        Map<String, Point> points = new HashMap<>(16);
+        if (!filterProperty.hasProfilePolicy() && !usesPercent()) {
+            return points;
+        }
+
+        Set<String> missing = new HashSet<>();
+        for (PointValue pointValue : pointValues) {
+            String pointId = pointValue.getPointId();
+            if (StrUtil.isEmpty(pointId) || points.containsKey(pointId)) {
+                continue;
+            }
+            Point point = pointCache.getIfPresent(pointId);
+            if (null != point) {
+                points.put(pointId, point);
+            } else {
+                missing.add(pointId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            try {
+                R<Map<String, Point>> r = pointClient.selectByIds(missing);
+                if (r.isOk()) {
+                    r.getData().forEach((pointId, point) -> {
+                        pointCache.put(pointId, point);
+                        points.put(pointId, point);
+                    });
+                }
+            } catch (Exception e) {
+                log.warn("Get points error, filter with default policy: {}", e.getMessage());
+            }
+        }
+        return points;
+    }
+
+    private boolean usesPercent() {
+        return FilterProperty.Mode.PERCENT.equals(filterProperty.getMode())
+                || filterProperty.getPolicies().stream().anyMatch(policy -> FilterProperty.Mode.PERCENT.equals(policy.getMode()));
+    }
+
+    private String key(PointValue pointValue) {
+        return pointValue.getDeviceId() + CommonConstant.Symbol.DOT + pointValue.getPointId();
+    }
+
+    /**
+     * 过滤结果，values 为需要写入历史存储的数据，changes 与 carried 用于写入失败时回退
+     */
+    public static class Result {
+        @Getter
+        private final List<PointValue> values;
+        private final Map<String, Change> changes = new HashMap<>(16);
+        private final Map<String, List<PointValue>> carried = new HashMap<>(16);
+        private final List<PointValue> evicted = new ArrayList<>();
+
+        Result(List<PointValue> values) {
+            this.values = values;
+        }
+
+        /**
+         * 记录位号状态的变化，同一位号多次变化时保留最早的原状态与最新的状态
+         */
+        private void change(String key, State previous, State next) {
+            Change change = changes.get(key);
+            changes.put(key, new Change(null != change ? change.previous : previous, next));
+        }
+
+        /**
+         * 记录随本结果保存的、之前暂存在状态中的数据
+         */
+        private void carry(String key, PointValue pointValue) {
+            carried.computeIfAbsent(key, k -> new ArrayList<>()).add(pointValue);
+        }
+    }
+
+    private static class Change {
+        private final State previous;
+        private final State next;
+
+        Change(State previous, State next) {
+            this.previous = previous;
+            this.next = next;
+        }
+    }
+
+    private static class State {
+        /**
+         * 上次保存的数据与时间，数值数据同时保存其数值
+         */
+        private final String value;
+        private final long time;
+        private final Double number;
+
+        /**
+         * 旋转门压缩中暂存的最新数据，以及两扇门当前的斜率
+         */
+        private final PointValue snapshot;
+        private final long snapshotTime;
+        private final double snapshotNumber;
+        private final double upper;
+        private final double lower;
+
+        /**
+         * 暂存数据的接收时间与位号的 heartbeat，用于判断是否需要由 flush 保存
+         */
+        private final long heldAt;
+        private final long heartbeat;
+
+        State(String value, long time) {
+            this(value, time, null);
+        }
+
+        State(String value, long time, Double number) {
+            this.value = value;
+            this.time = time;
+            this.number = number;
+            this.snapshot = null;
+            this.snapshotTime = time;
+            this.snapshotNumber = 0;
+            this.upper = Double.NEGATIVE_INFINITY;
+            this.lower = Double.POSITIVE_INFINITY;
+            this.heldAt = 0;
+            this.heartbeat = 0;
+        }
+
+        State(State pivot, PointValue snapshot, long snapshotTime, double snapshotNumber, double upper, double lower, long heldAt, long heartbeat) {
+            this.value = pivot.value;
+            this.time = pivot.time;
+            this.number = pivot.number;
+            this.snapshot = snapshot;
+            this.snapshotTime = snapshotTime;
+            this.snapshotNumber = snapshotNumber;
+            this.upper = upper;
+            this.lower = lower;
+            this.heldAt = heldAt;
+            this.heartbeat = heartbeat;
+        }
+
+        /**
+         * 已处理的最新数据时间
+         */
+        long latest() {
+            return null != snapshot ? snapshotTime : time;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import cn.hutool.core.util.StrUtil;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.center.data.service.PointValueAggregateService;
+import io.github.pnoker.center.data.service.query.LttbDownsampler;
+import io.github.pnoker.center.data.service.rollup.PointValueRollup;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.bean.point.PointValueAggregate;
+import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.dto.PointValueAggregateDto;
+import io.github.pnoker.common.exception.ServiceException;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 位号数据聚合、降采样 Service Impl
+ * <p>
+ * 聚合在 Mongo 中按时间间隔分组计算，时间间隔不小于 1 分钟时读取不大于时间间隔的最粗汇总数据，
+ * 否则读取原始数据；汇总数据与原始数据同样只包含经过 PointValueFilter 过滤后写入历史存储的数据，
+ * 时间范围两端不完整的时间窗口、汇总数据尚未完整覆盖的时间窗口以及最近尚未合并的时间窗口读取原始数据，结果与全部读取原始数据一致。
+ * 降采样按时间顺序流式读取数值并使用 LTTB 算法筛选，
+ * 两者返回的数据数量均不超过 data.point.query.max-points。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Service
+public class PointValueAggregateServiceImpl implements PointValueAggregateService {
+
+    @Value("${data.point.query.max-points}")
+    private Integer maxPoints;
+
+    @Resource
+    private MongoProperty mongoProperty;
+    @Resource
+    private MongoTemplate mongoTemplate;
+    @Resource
+    private PointValueRollup pointValueRollup;
+
+    @Override
+    public List<PointValueAggregate> aggregate(PointValueAggregateDto pointValueAggregateDto) {
+        check(pointValueAggregateDto);
+        long startTime = pointValueAggregateDto.getStartTime();
+        long endTime = pointValueAggregateDto.getEndTime();
+        long interval = interval(pointValueAggregateDto);
+
+        PointValueRollup.Level level = pointValueRollup.isEnable() ? PointValueRollup.Level.coarsest(interval) : null;
+        if (null == level) {
+            return rawAggregate(pointValueAggregateDto, startTime, endTime, startTime, interval).values().stream().map(Bucket::toAggregate).collect(Collectors.toList());
+        }
+
+        // 使用汇总数据时，时间间隔与起点对齐到汇总粒度的时间窗口
+        long width = level.getWidth();
+        interval = (interval + width - 1) / width * width;
+        long origin = level.floor(startTime);
+
+        // 只有完整落在时间范围内的时间窗口读取汇总数据，汇总数据从开始汇总时才有，
+        // 最早的时间窗口通常只汇总了部分数据，同样读取原始数据
+        String collection = PointValueRollup.collection(level, pointValueAggregateDto.getDeviceId());
+        Document earliest = mongoTemplate.getCollection(collection)
+                .find(new Document("pointId", pointValueAggregateDto.getPointId()))
+                .sort(new Document("start", 1))
+                .projection(new Document("start", 1))
+                .first();
+        long rollupStart = null == earliest ? endTime : Math.max(level.ceil(startTime), level.next(earliest.getDate("start").getTime()));
+        // 累加值每 flush-interval 合并一次，最近两个合并间隔内结束的时间窗口可能尚未完整写入汇总数据
+        long rollupEnd = Math.min(level.floor(endTime), level.floor(System.currentTimeMillis() - 2 * pointValueRollup.getFlushInterval()));
+
+        Map<Long, Bucket> buckets = new TreeMap<>();
+        if (rollupStart >= rollupEnd) {
+            rawAggregate(pointValueAggregateDto, startTime, endTime, origin, interval).forEach((time, bucket) -> buckets.merge(time, bucket, Bucket::merge));
+        } else {
+            if (startTime < rollupStart) {
+                rawAggregate(pointValueAggregateDto, startTime, rollupStart, origin, interval).forEach((time, bucket) -> buckets.merge(time, bucket, Bucket::merge));
+            }
+            rollupAggregate(pointValueAggregateDto, collection, rollupStart, rollupEnd, origin, interval).forEach((time, bucket) -> buckets.merge(time, bucket, Bucket::merge));
+            if (rollupEnd < endTime) {
+                rawAggregate(pointValueAggregateDto, rollupEnd, endTime, origin, interval).forEach((time, bucket) -> buckets.merge(time, bucket, Bucket::merge));
+            }
+        }
+
+        return buckets.values().stream().map(Bucket::toAggregate).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<PointValue> downsample(PointValueAggregateDto pointValueAggregateDto) {
+        check(pointValueAggregateDto);
+        int points = null != pointValueAggregateDto.getPoints() && pointValueAggregateDto.getPoints() > 2 ? Math.min(pointValueAggregateDto.getPoints(), maxPoints) : maxPoints;
+        LttbDownsampler downsampler = new LttbDownsampler(pointValueAggregateDto.getStartTime(), pointValueAggregateDto.getEndTime(), points);
+
+        try (MongoCursor<Document> cursor = collection(pointValueAggregateDto).aggregate(samplePipeline(pointValueAggregateDto, pointValueAggregateDto.getStartTime(), pointValueAggregateDto.getEndTime())).allowDiskUse(true).batchSize(5000).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                downsampler.add(document.getDate("t").getTime(), document.getDouble("v"), document.getString("s"));
+            }
+        }
+
+        List<PointValue> pointValues = new ArrayList<>();
+        for (LttbDownsampler.Sample sample : downsampler.finish()) {
+            Date time = new Date(sample.getTime());
+            PointValue pointValue = new PointValue(pointValueAggregateDto.getDeviceId(), pointValueAggregateDto.getPointId(), sample.getText(), sample.getText());
+            pointValues.add(pointValue.setOriginTime(time).setCreateTime(time));
+        }
+        return pointValues;
+    }
+
+    /**
+     * 从原始数据按时间间隔聚合，时间间隔的起点为 origin
+     */
+    private Map<Long, Bucket> rawAggregate(PointValueAggregateDto pointValueAggregateDto, long startTime, long endTime, long origin, long interval) {
+        List<Document> pipeline = samplePipeline(pointValueAggregateDto, startTime, endTime);
+        pipeline.add(new Document("$group", new Document("_id", bucketExpression("$t", origin, interval))
+                .append("count", new Document("$sum", 1))
+                .append("sum", new Document("$sum", "$v"))
+                .append("min", new Document("$min", "$v"))
+                .append("max", new Document("$max", "$v"))
+                .append("first", new Document("$first", "$v"))
+                .append("last", new Document("$last", "$v"))));
+        return buckets(collection(pointValueAggregateDto), pipeline);
+    }
+
+    /**
+     * 从汇总数据按时间间隔聚合，时间间隔为汇总粒度的整数倍，startTime、endTime 为时间窗口的开始时间
+     */
+    private Map<Long, Bucket> rollupAggregate(PointValueAggregateDto pointValueAggregateDto, String collection, long startTime, long endTime, long origin, long interval) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("pointId", pointValueAggregateDto.getPointId())
+                .append("start", new Document("$gte", new Date(startTime)).append("$lt", new Date(endTime)))));
+        pipeline.add(new Document("$sort", new Document("start", 1)));
+        pipeline.add(new Document("$group", new Document("_id", bucketExpression("$start", origin, interval))
+                .append("count", new Document("$sum", "$count"))
+                .append("sum", new Document("$sum", "$sum"))
+                .append("min", new Document("$min", "$min"))
+                .append("max", new Document("$max", "$max"))
+                .append("first", new Document("$first", "$first"))
+                .append("last", new Document("$last", "$last"))));
+        return buckets(mongoTemplate.getCollection(collection), pipeline);
+    }
+
+    /**
+     * 时间所在时间间隔的开始时间：time - (time - origin) % interval
+     */
+    private Document bucketExpression(String field, long origin, long interval) {
+        Document time = new Document("$toLong", field);
+        return new Document("$subtract", Arrays.asList(time, new Document("$mod", Arrays.asList(new Document("$subtract", Arrays.asList(time, origin)), interval))));
+    }
+
+    private Map<Long, Bucket> buckets(MongoCollection<Document> collection, List<Document> pipeline) {
+        Map<Long, Bucket> buckets = new TreeMap<>();
+        try (MongoCursor<Document> cursor = collection.aggregate(pipeline).allowDiskUse(true).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                long time = ((Number) document.get("_id")).longValue();
+                buckets.put(time, new Bucket(time,
+                        ((Number) document.get("count")).longValue(),
+                        ((Number) document.get("sum")).doubleValue(),
+                        document.getDouble("min"),
+                        document.getDouble("max"),
+                        document.getDouble("first"),
+                        document.getDouble("last")));
+            }
+        }
+        return buckets;
+    }
+
+    private void check(PointValueAggregateDto pointValueAggregateDto) {
+        if (StrUtil.isEmpty(pointValueAggregateDto.getDeviceId()) || StrUtil.isEmpty(pointValueAggregateDto.getPointId())) {
+            throw new ServiceException("Device id and point id can not be empty");
+        }
+        if (pointValueAggregateDto.getStartTime() <= 0 || pointValueAggregateDto.getEndTime() <= pointValueAggregateDto.getStartTime()) {
+            throw new ServiceException("Invalid time range: {} ~ {}", pointValueAggregateDto.getStartTime(), pointValueAggregateDto.getEndTime());
+        }
+    }
+
+    /**
+     * 聚合时间间隔，不小于时间范围 / maxPoints，保证返回的数据数量有上限
+     */
+    private long interval(PointValueAggregateDto pointValueAggregateDto) {
+        long range = pointValueAggregateDto.getEndTime() - pointValueAggregateDto.getStartTime();
+        int points = null != pointValueAggregateDto.getPoints() && pointValueAggregateDto.getPoints() > 0 ? Math.min(pointValueAggregateDto.getPoints(), maxPoints) : maxPoints;
+        long minInterval = Math.max(1, (range + points - 1) / points);
+        Long interval = pointValueAggregateDto.getInterval();
+        return null != interval && interval > minInterval ? interval : minInterval;
+    }
+
+    private MongoCollection<Document> collection(PointValueAggregateDto pointValueAggregateDto) {
+        String prefix = MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode()) ? CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX : CommonConstant.Storage.POINT_VALUE_PREFIX;
+        return mongoTemplate.getCollection(prefix + pointValueAggregateDto.getDeviceId());
+    }
+
+    /**
+     * 输出时间范围内可转换为数值的位号数据，按时间升序，字段为 t（时间）、v（数值）、s（原始字符串）
+     */
+    private List<Document> samplePipeline(PointValueAggregateDto pointValueAggregateDto, long start, long end) {
+        Date startTime = new Date(start);
+        Date endTime = new Date(end);
+        Document range = new Document("$gte", startTime).append("$lt", endTime);
+
+        List<Document> pipeline = new ArrayList<>();
+        String time;
+        String value;
+        if (MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode())) {
+            pipeline.add(new Document("$match", new Document("pointId", pointValueAggregateDto.getPointId())
+                    .append("start", new Document("$lt", endTime))
+                    .append("lastTime", new Document("$gte", startTime))));
+            pipeline.add(new Document("$unwind", "$samples"));
+            pipeline.add(new Document("$match", new Document("samples.t", range)));
+            time = "samples.t";
+            value = "samples.v";
+        } else {
+            time = mongoProperty.getTimeField();
+            value = "value";
+            pipeline.add(new Document("$match", new Document("pointId", pointValueAggregateDto.getPointId()).append(time, range)));
+        }
+        pipeline.add(new Document("$sort", new Document(time, 1)));
+        pipeline.add(new Document("$project", new Document("_id", 0)
+                .append("t", "$" + time)
+                .append("s", "$" + value)
+                .append("v", new Document("$convert", new Document("input", "$" + value).append("to", "double").append("onError", null).append("onNull", null)))));
+        pipeline.add(new Document("$match", new Document("v", new Document("$ne", null))));
+        return pipeline;
+    }
+
+    /**
+     * 一个时间间隔的聚合值，先后读取的原始数据与汇总数据落在同一时间间隔时合并
+     */
+    private static class Bucket {
+        private final long time;
+        private long count;
+        private double sum;
+        private Double min;
+        private Double max;
+        private Double first;
+        private Double last;
+
+        Bucket(long time, long count, double sum, Double min, Double max, Double first, Double last) {
+            this.time = time;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.first = first;
+            this.last = last;
+        }
+
+        /**
+         * 合并时间更晚的聚合值
+         */
+        Bucket merge(Bucket later) {
+            count += later.count;
+            sum += later.sum;
+            min = null == min ? later.min : null == later.min ? min : Math.min(min, later.min);
+            max = null == max ? later.max : null == later.max ? max : Math.max(max, later.max);
+            first = null == first ? later.first : first;
+            last = null == later.last ? last : later.last;
+            return this;
+        }
+
+        PointValueAggregate toAggregate() {
+            return new PointValueAggregate(new Date(time), count, count > 0 ? sum / count : null, min, max, first, last);
+        }
+    }
+}
@@ -20,9 +20,16 @@ import cn.hutool.core.collection.CollectionUtil;
 import cn.hutool.core.util.ObjectUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Lists;
 import io.github.pnoker.api.center.manager.feign.PointClient;
+import io.github.pnoker.center.data.bean.MongoProperty;
 import io.github.pnoker.center.data.service.PointValueService;
 import io.github.pnoker.center.data.service.RepositoryHandleService;
+import io.github.pnoker.center.data.service.cache.PointValueHotWindow;
+import io.github.pnoker.center.data.service.cache.PointValueNearCache;
+import io.github.pnoker.common.bean.CursorPage;
 import io.github.pnoker.common.bean.Pages;
 import io.github.pnoker.common.bean.R;
 import io.github.pnoker.common.bean.point.PointValue;
@@ -30,24 +37,37 @@ import io.github.pnoker.common.constant.CacheConstant;
 import io.github.pnoker.common.constant.CommonConstant;
 import io.github.pnoker.common.dto.PointDto;
 import io.github.pnoker.common.dto.PointValueDto;
+import io.github.pnoker.common.exception.ServiceException;
 import io.github.pnoker.common.model.Description;
 import io.github.pnoker.common.model.Point;
+import io.github.pnoker.common.utils.PointValueUtil;
 import io.github.pnoker.common.utils.RedisUtil;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.Date;
-import java.util.List;
-import java.util.Objects;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -55,20 +75,51 @@ import java.util.stream.Collectors;
  */
 @Slf4j
 @Service
-public class PointValueServiceImpl implements PointValueService {
+public class PointValueServiceImpl implements PointValueService, InitializingBean {
+
+    @Value("${data.point.query.history-size}")
+    private Integer historySize;
+    @Value("${data.point.query.history-batch-size}")
+    private Integer historyBatchSize;
+    @Value("${data.point.query.count-expire}")
+    private Long countExpire;
 
     @Resource
     private PointClient pointClient;
 
     @Resource
     private RepositoryHandleService repositoryHandleService;
+    @Resource
+    private PointValueNearCache pointValueNearCache;
+    @Resource
+    private PointValueHotWindow pointValueHotWindow;
 
+    @Resource
+    private MongoProperty mongoProperty;
     @Resource
     private RedisUtil redisUtil;
     @Resource
     private MongoTemplate mongoTemplate;
     @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private ThreadPoolExecutor queryThreadPoolExecutor;
+
+    /**
+     * 游标分页查询的总数缓存，Key 为集合与查询条件
+     */
+    private Cache<String, Long> countCache;
+
+    /**
+     * 集合是否为时序集合，时序集合的游标分页按时间跳过同一时间上的数据
+     */
+    private final Map<String, Boolean> timeSeriesCollections = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        countCache = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(countExpire, TimeUnit.MILLISECONDS)
+                .build();
+    }
 
     @Override
     public void savePointValue(PointValue pointValue) {
@@ -77,17 +128,20 @@ public class PointValueServiceImpl implements PointValueService {
         }
 
         final PointValue repositoryValue = pointValue.setCreateTime(new Date());
-        repositoryHandleService.save(repositoryValue);
+        final List<PointValue> repositoryValues = Collections.singletonList(repositoryValue);
+        pointValueNearCache.put(repositoryValue);
+        repositoryHandleService.save(repositoryValues);
     }
 
     @Override
-    public void savePointValues(List<PointValue> pointValues) {
+    public CompletableFuture<Void> savePointValues(List<PointValue> pointValues) {
         if (CollectionUtil.isEmpty(pointValues)) {
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         final List<PointValue> repositoryValues = pointValues.stream().map(pointValue -> pointValue.setCreateTime(new Date())).collect(Collectors.toList());
-        repositoryHandleService.save(repositoryValues);
+        pointValueNearCache.put(repositoryValues);
+        return repositoryHandleService.save(repositoryValues);
     }
 
     @Override
@@ -104,12 +158,25 @@ public class PointValueServiceImpl implements PointValueService {
         List<Point> points = pageR.getData().getRecords();
         List<String> pointIds = points.stream().map(Description::getId).collect(Collectors.toList());
         List<PointValue> pointValues = realtime(pointValueDto.getDeviceId(), pointIds);
-        if (CollectionUtil.isEmpty(pointValues)) pointValues = latest(pointValueDto.getDeviceId(), pointIds);
+        if (pointValues.size() < pointIds.size()) {
+            Set<String> hits = pointValues.stream().map(PointValue::getPointId).collect(Collectors.toSet());
+            List<String> misses = pointIds.stream().filter(pointId -> !hits.contains(pointId)).collect(Collectors.toList());
+            pointValues = new ArrayList<>(pointValues);
+            pointValues.addAll(latest(pointValueDto.getDeviceId(), misses));
+        }
+
+        // 缓存未命中的数据在后面补充，按位号分页的顺序重新排序
+        Map<String, Integer> order = new HashMap<>(pointIds.size() * 2);
+        for (int i = 0; i < pointIds.size(); i++) {
+            order.put(pointIds.get(i), i);
+        }
+        pointValues.sort(Comparator.comparingInt(pointValue -> order.getOrDefault(pointValue.getPointId(), Integer.MAX_VALUE)));
         pointValuePage.setCurrent(pageR.getData().getCurrent()).setSize(pageR.getData().getSize()).setTotal(pageR.getData().getTotal()).setRecords(pointValues);
 
-        // 返回最近100个非字符类型的历史值
-        if (pointValueDto.getHistory()) {
-            pointValues.parallelStream().forEach(pointValue -> pointValue.setChildren(historyPointValue(pointValueDto.getDeviceId(), pointValue.getPointId(), 50)));
+        // 返回最近 historySize 个历史值
+        if (pointValueDto.getHistory() && !pointValues.isEmpty()) {
+            Map<String, List<String>> histories = historyPointValues(pointValueDto.getDeviceId(), pointValues.stream().map(PointValue::getPointId).collect(Collectors.toList()), historySize);
+            pointValues.forEach(pointValue -> pointValue.setChildren(histories.getOrDefault(pointValue.getPointId(), Collections.emptyList())));
         }
 
         return pointValuePage;
@@ -128,16 +195,27 @@ public class PointValueServiceImpl implements PointValueService {
         if (StrUtil.isNotEmpty(pointValueDto.getPointId())) criteria.and("pointId").is(pointValueDto.getPointId());
 
         Pages pages = pointValueDto.getPage();
+        List<PointValue> hotValues = hotRange(pointValueDto, pages.getStartTime(), pages.getEndTime());
+        if (null != hotValues) {
+            long skip = Math.min(pages.getSize() * (pages.getCurrent() - 1), hotValues.size());
+            long limit = Math.min(skip + pages.getSize(), hotValues.size());
+            return pointValuePage.setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(hotValues.size()).setRecords(new ArrayList<>(hotValues.subList((int) skip, (int) limit)));
+        }
+
+        if (MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode()) && StrUtil.isNotEmpty(pointValueDto.getDeviceId())) {
+            return bucketList(pointValueDto, pages);
+        }
+
         if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
-            criteria.and("createTime").gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
+            criteria.and(mongoProperty.getTimeField()).gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
         }
 
         final String collection = StrUtil.isNotEmpty(pointValueDto.getDeviceId()) ? CommonConstant.Storage.POINT_VALUE_PREFIX + pointValueDto.getDeviceId() : CacheConstant.Entity.POINT + CacheConstant.Suffix.VALUE;
-        Future<Long> count = threadPoolExecutor.submit(() -> mongoTemplate.count(query, collection));
+        Future<Long> count = queryThreadPoolExecutor.submit(() -> mongoTemplate.count(query, collection));
 
-        Future<List<PointValue>> pointValues = threadPoolExecutor.submit(() -> {
+        Future<List<PointValue>> pointValues = queryThreadPoolExecutor.submit(() -> {
             query.limit((int) pages.getSize()).skip(pages.getSize() * (pages.getCurrent() - 1));
-            query.with(Sort.by(Sort.Direction.DESC, "createTime"));
+            query.with(Sort.by(Sort.Direction.DESC, mongoProperty.getTimeField()));
             return mongoTemplate.find(query, PointValue.class, collection);
         });
 
@@ -147,15 +225,105 @@ public class PointValueServiceImpl implements PointValueService {
         return pointValuePage;
     }
 
+    @Override
+    public CursorPage<PointValue> cursor(PointValueDto pointValueDto, String tenantId) {
+        if (ObjectUtil.isEmpty(pointValueDto.getPage())) pointValueDto.setPage(new Pages());
+        if (StrUtil.isEmpty(pointValueDto.getDeviceId())) {
+            throw new ServiceException("Device id can not be empty");
+        }
+
+        Pages pages = pointValueDto.getPage();
+        Cursor cursor = Cursor.decode(pointValueDto.getCursor());
+        Date startTime = pages.getStartTime() > 0 ? new Date(pages.getStartTime()) : null;
+        Date endTime = pages.getEndTime() > 0 ? new Date(pages.getEndTime()) : null;
+        if (null != cursor && (null == endTime || cursor.time < endTime.getTime())) {
+            endTime = new Date(cursor.time);
+        }
+
+        boolean bucket = MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode());
+        String collection = (bucket ? CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX : CommonConstant.Storage.POINT_VALUE_PREFIX) + pointValueDto.getDeviceId();
+        int skip = null != cursor ? cursor.skip : 0;
+        int limit = (int) pages.getSize() + 1;
+
+        // 多查询一条用于判断是否还有下一页
+        List<PointValue> pointValues;
+        List<PointValue> hotValues = null != startTime ? hotRange(pointValueDto, startTime.getTime(), null != endTime ? endTime.getTime() : Long.MAX_VALUE) : null;
+        if (null != hotValues) {
+            pointValues = new ArrayList<>(hotValues.subList(Math.min(skip, hotValues.size()), Math.min(skip + limit, hotValues.size())));
+        } else if (bucket) {
+            Criteria bucketCriteria = new Criteria();
+            if (StrUtil.isNotEmpty(pointValueDto.getPointId())) bucketCriteria.and("pointId").is(pointValueDto.getPointId());
+            Criteria sampleCriteria = sampleTimeCriteria(startTime, endTime);
+            if (null != cursor && null != cursor.key) {
+                Criteria cursorCriteria = new Criteria().orOperator(
+                        Criteria.where("samples.t").lt(new Date(cursor.time)),
+                        Criteria.where("samples.t").is(new Date(cursor.time)).and("pointId").lte(cursor.key));
+                sampleCriteria = null != sampleCriteria ? new Criteria().andOperator(sampleCriteria, cursorCriteria) : cursorCriteria;
+            }
+            if (null != endTime) bucketCriteria.and("firstTime").lte(endTime);
+            if (null != startTime) bucketCriteria.and("lastTime").gte(startTime);
+            // 不指定位号时各位号的分桶时间窗口相同，按分桶数量截取无法得到整个设备最新的数据
+            int bucketLimit = StrUtil.isNotEmpty(pointValueDto.getPointId()) ? skip + limit : 0;
+            pointValues = bucketPointValues(pointValueDto.getDeviceId(), bucketCriteria, sampleCriteria, bucketLimit, skip, limit);
+        } else {
+            boolean timeSeries = isTimeSeriesCollection(collection);
+            String timeField = mongoProperty.getTimeField();
+            Criteria criteria = new Criteria();
+            if (StrUtil.isNotEmpty(pointValueDto.getPointId())) criteria.and("pointId").is(pointValueDto.getPointId());
+            if (null != startTime || null != endTime) {
+                Criteria timeCriteria = criteria.and(timeField);
+                if (null != startTime) timeCriteria.gte(startTime);
+                if (null != endTime) timeCriteria.lte(endTime);
+            }
+            if (null != cursor && null != cursor.key) {
+                criteria.orOperator(
+                        Criteria.where(timeField).lt(new Date(cursor.time)),
+                        Criteria.where(timeField).is(new Date(cursor.time)).and("pointId").lte(cursor.key));
+            }
+            Query query = new Query(criteria);
+            // 同一时间的数据按位号排序，普通集合再按 _id 排序，使同一位号同一时间的数据顺序稳定
+            Sort sort = timeSeries ? Sort.by(Sort.Direction.DESC, timeField, "pointId") : Sort.by(Sort.Direction.DESC, timeField, "pointId", "_id");
+            query.with(sort).skip(skip).limit(limit);
+            pointValues = mongoTemplate.find(query, PointValue.class, collection);
+        }
+
+        CursorPage<PointValue> cursorPage = new CursorPage<>();
+        cursorPage.setSize(pages.getSize());
+        if (pointValues.size() > pages.getSize()) {
+            pointValues = new ArrayList<>(pointValues.subList(0, (int) pages.getSize()));
+            cursorPage.setCursor(Cursor.next(cursor, pointValues, this::time).encode());
+        }
+        cursorPage.setRecords(pointValues);
+
+        if (Boolean.TRUE.equals(pointValueDto.getCount())) {
+            cursorPage.setTotal(cursorCount(collection, pointValueDto, pages, bucket));
+        }
+        return cursorPage;
+    }
+
     public List<PointValue> realtime(String deviceId, List<String> pointIds) {
         if (CollectionUtil.isEmpty(pointIds)) {
             return Collections.emptyList();
         }
 
-        String prefix = CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + deviceId + CommonConstant.Symbol.DOT;
-        List<String> keys = pointIds.stream().map(pointId -> prefix + pointId).collect(Collectors.toList());
-        List<PointValue> pointValues = redisUtil.getKey(keys, PointValue.class);
-        return pointValues.stream().filter(Objects::nonNull).collect(Collectors.toList());
+        // 优先读取进程内缓存，未命中的位号再读取 Redis
+        List<String> misses = new ArrayList<>();
+        List<PointValue> pointValues = pointValueNearCache.get(deviceId, pointIds, misses);
+        if (misses.isEmpty()) {
+            return pointValues;
+        }
+
+        List<byte[]> values = redisUtil.getHash(CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + deviceId, misses);
+        for (int i = 0; i < values.size(); i++) {
+            if (null != values.get(i)) {
+                PointValue pointValue = PointValueUtil.decodeValue(values.get(i), deviceId, misses.get(i));
+                if (null != pointValue) {
+                    pointValueNearCache.put(pointValue);
+                    pointValues.add(pointValue);
+                }
+            }
+        }
+        return pointValues;
     }
 
     public List<PointValue> latest(String deviceId, List<String> pointIds) {
@@ -163,12 +331,16 @@ public class PointValueServiceImpl implements PointValueService {
             return Collections.emptyList();
         }
 
-        return pointIds.stream().map(pointId -> latestPointValue(deviceId, pointId)).filter(Objects::nonNull).collect(Collectors.toList());
+        List<PointValue> pointValues = MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode()) ? bucketLatestPointValues(deviceId, pointIds) : latestPointValues(deviceId, pointIds);
+
+        // 按 pointIds 的顺序返回
+        Map<String, PointValue> pointValueMap = pointValues.stream().collect(Collectors.toMap(PointValue::getPointId, pointValue -> pointValue, (older, newer) -> older));
+        return pointIds.stream().map(pointValueMap::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     public PointValue realtime(String deviceId, String pointId) {
-        String key = CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + deviceId + CommonConstant.Symbol.UNDERSCORE + pointId;
-        return redisUtil.getKey(key, PointValue.class);
+        List<PointValue> pointValues = realtime(deviceId, Collections.singletonList(pointId));
+        return pointValues.isEmpty() ? null : pointValues.get(0);
     }
 
     public PointValue latest(String deviceId, String pointId) {
@@ -176,22 +348,363 @@ public class PointValueServiceImpl implements PointValueService {
     }
 
     private PointValue latestPointValue(String deviceId, String pointId) {
+        if (MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode())) {
+            List<PointValue> pointValues = bucketPointValues(deviceId, Criteria.where("pointId").is(pointId), null, 1, 0, 1);
+            return pointValues.isEmpty() ? null : pointValues.get(0);
+        }
+
         Criteria criteria = new Criteria();
         Query query = new Query(criteria);
         criteria.and("pointId").is(pointId);
-        query.with(Sort.by(Sort.Direction.DESC, "createTime"));
+        query.with(Sort.by(Sort.Direction.DESC, mongoProperty.getTimeField()));
 
         return mongoTemplate.findOne(query, PointValue.class, CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId);
     }
 
-    private List<String> historyPointValue(String deviceId, String pointId, int count) {
-        Criteria criteria = new Criteria();
-        Query query = new Query(criteria);
-        criteria.and("deviceId").is(deviceId).and("pointId").is(pointId);
-        query.fields().include("value").exclude("id");
-        query.limit(count).with(Sort.by(Sort.Direction.DESC, "createTime"));
+    /**
+     * 一次聚合查询多个位号的最新数据，按 pointId 升序、时间倒序排序后分组取第一条，可使用 pointId 与时间的组合索引
+     *
+     * @param deviceId Device Id
+     * @param pointIds Point Id Array
+     * @return PointValue Array
+     */
+    private List<PointValue> latestPointValues(String deviceId, List<String> pointIds) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("pointId").in(pointIds)),
+                Aggregation.sort(Sort.by(Sort.Order.asc("pointId"), Sort.Order.desc(mongoProperty.getTimeField()))),
+                Aggregation.group("pointId").first(Aggregation.ROOT).as("value"),
+                Aggregation.replaceRoot("value")
+        );
+        return mongoTemplate.aggregate(aggregation, CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId, PointValue.class).getMappedResults();
+    }
+
+    /**
+     * 分桶存储方式下一次聚合查询多个位号的最新数据，先取每个位号最新的分桶，再展开取其中最新的数据；
+     * 同一时间窗口滚动出多个分桶时按 lastTime 取最后写入的分桶
+     *
+     * @param deviceId Device Id
+     * @param pointIds Point Id Array
+     * @return PointValue Array
+     */
+    private List<PointValue> bucketLatestPointValues(String deviceId, List<String> pointIds) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("pointId").in(pointIds)),
+                Aggregation.sort(Sort.by(Sort.Order.asc("pointId"), Sort.Order.desc("start"), Sort.Order.desc("lastTime"))),
+                Aggregation.group("pointId").first(Aggregation.ROOT).as("bucket"),
+                Aggregation.replaceRoot("bucket"),
+                Aggregation.unwind("samples"),
+                Aggregation.sort(Sort.by(Sort.Direction.DESC, "samples.t")),
+                Aggregation.group("pointId").first(Aggregation.ROOT).as("bucket"),
+                Aggregation.replaceRoot("bucket"),
+                Aggregation.project("deviceId", "pointId")
+                        .andExclude("_id")
+                        .and("samples.v").as("value")
+                        .and(ConditionalOperators.ifNull("samples.r").thenValueOf("samples.v")).as("rawValue")
+                        .and("samples.t").as("originTime")
+                        .and("samples.c").as("createTime")
+        );
+        return mongoTemplate.aggregate(aggregation, CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX + deviceId, PointValue.class).getMappedResults();
+    }
+
+    /**
+     * 查询多个位号最近 count 个历史值，每 historyBatchSize 个位号一次聚合查询，在查询线程池中并行执行
+     *
+     * @param deviceId Device Id
+     * @param pointIds Point Id Array
+     * @param count    每个位号的历史值数量
+     * @return Point Id -> 历史值，按时间倒序
+     */
+    private Map<String, List<String>> historyPointValues(String deviceId, List<String> pointIds, int count) {
+        Map<String, List<String>> histories = new HashMap<>(pointIds.size() * 2);
+        List<String> misses = new ArrayList<>(pointIds.size());
+        for (String pointId : pointIds) {
+            List<String> values = pointValueHotWindow.latest(deviceId, pointId, count);
+            if (null != values) {
+                histories.put(pointId, values);
+            } else {
+                misses.add(pointId);
+            }
+        }
 
-        List<PointValue> pointValues = mongoTemplate.find(query, PointValue.class, CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId);
-        return pointValues.stream().map(PointValue::getValue).collect(Collectors.toList());
+        List<CompletableFuture<Map<String, List<String>>>> futures = Lists.partition(misses, historyBatchSize).stream()
+                .map(partition -> CompletableFuture.supplyAsync(() -> batchHistoryPointValues(deviceId, partition, count), queryThreadPoolExecutor))
+                .collect(Collectors.toList());
+        futures.forEach(future -> histories.putAll(future.join()));
+        return histories;
+    }
+
+    /**
+     * 一次聚合查询多个位号最近 count 个历史值
+     * <p>
+     * 每个位号是一个按 pointId 与时间索引排序后取前 count 条的子查询，通过 $unionWith 合并到同一个聚合中，
+     * 只需一次往返，且每个子查询只扫描索引上的 count 条数据。
+     *
+     * @param deviceId Device Id
+     * @param pointIds Point Id Array
+     * @param count    每个位号的历史值数量
+     * @return Point Id -> 历史值，按时间倒序
+     */
+    private Map<String, List<String>> batchHistoryPointValues(String deviceId, List<String> pointIds, int count) {
+        boolean bucket = MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode());
+        String collection = (bucket ? CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX : CommonConstant.Storage.POINT_VALUE_PREFIX) + deviceId;
+
+        List<AggregationOperation> operations = new ArrayList<>(historyOperations(pointIds.get(0), count, bucket));
+        for (int i = 1; i < pointIds.size(); i++) {
+            operations.add(UnionWithOperation.unionWith(collection).pipeline(historyOperations(pointIds.get(i), count, bucket)));
+        }
+        operations.add(Aggregation.sort(Sort.by(Sort.Order.asc("pointId"), Sort.Order.desc("time"))));
+        operations.add(Aggregation.group("pointId").push("value").as("values"));
+
+        List<Document> documents = mongoTemplate.aggregate(Aggregation.newAggregation(operations), collection, Document.class).getMappedResults();
+        Map<String, List<String>> histories = new HashMap<>(documents.size() * 2);
+        for (Document document : documents) {
+            List<?> values = document.get("values", List.class);
+            histories.put(document.getString("_id"), values.stream().map(value -> null == value ? null : value.toString()).collect(Collectors.toList()));
+        }
+        return histories;
+    }
+
+    /**
+     * 单个位号最近 count 个历史值的查询阶段，输出 pointId、value、time
+     */
+    private List<AggregationOperation> historyOperations(String pointId, int count, boolean bucket) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(Aggregation.match(Criteria.where("pointId").is(pointId)));
+        if (bucket) {
+            // 每个分桶至少有一个数据，最近 count 个分桶一定包含最近 count 个数据；
+            // 分桶内的数据按写入顺序追加，展开前只保留每个分桶最后写入的 count 个数据
+            operations.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, "start")));
+            operations.add(Aggregation.limit(count));
+            operations.add(Aggregation.project("pointId").and(ArrayOperators.arrayOf("samples").slice().itemCount(-count)).as("samples"));
+            operations.add(Aggregation.unwind("samples"));
+            operations.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, "samples.t")));
+            operations.add(Aggregation.limit(count));
+            operations.add(Aggregation.project("pointId").andExclude("_id").and("samples.v").as("value").and("samples.t").as("time"));
+        } else {
+            operations.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, mongoProperty.getTimeField())));
+            operations.add(Aggregation.limit(count));
+            operations.add(Aggregation.project("pointId", "value").andExclude("_id").and(mongoProperty.getTimeField()).as("time"));
+        }
+        return operations;
+    }
+
+    /**
+     * 分桶存储方式下的分页查询，先按分桶字段筛选，再展开分桶按数据时间筛选与排序
+     */
+    @SneakyThrows
+    private Page<PointValue> bucketList(PointValueDto pointValueDto, Pages pages) {
+        Criteria bucketCriteria = new Criteria();
+        Criteria sampleCriteria = null;
+        if (StrUtil.isNotEmpty(pointValueDto.getPointId())) bucketCriteria.and("pointId").is(pointValueDto.getPointId());
+        if (pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime()) {
+            bucketCriteria.and("start").lte(new Date(pages.getEndTime())).and("lastTime").gte(new Date(pages.getStartTime()));
+            sampleCriteria = Criteria.where("samples.t").gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
+        }
+
+        final String collection = CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX + pointValueDto.getDeviceId();
+        final Criteria countCriteria = sampleCriteria;
+        Future<Long> count = queryThreadPoolExecutor.submit(() -> bucketCount(collection, bucketCriteria, countCriteria));
+
+        List<PointValue> pointValues = bucketPointValues(pointValueDto.getDeviceId(), bucketCriteria, sampleCriteria, 0, pages.getSize() * (pages.getCurrent() - 1), pages.getSize());
+        return new Page<PointValue>().setCurrent(pages.getCurrent()).setSize(pages.getSize()).setTotal(count.get()).setRecords(pointValues);
+    }
+
+    /**
+     * 分桶存储方式下的数据数量
+     *
+     * @param collection     Collection Name
+     * @param bucketCriteria 分桶筛选条件
+     * @param sampleCriteria 数据筛选条件，可为 null
+     * @return long
+     */
+    private long bucketCount(String collection, Criteria bucketCriteria, Criteria sampleCriteria) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(Aggregation.match(bucketCriteria));
+        if (null != sampleCriteria) {
+            operations.add(Aggregation.unwind("samples"));
+            operations.add(Aggregation.match(sampleCriteria));
+            operations.add(Aggregation.count().as("total"));
+        } else {
+            operations.add(Aggregation.group().sum("count").as("total"));
+        }
+        Document document = mongoTemplate.aggregate(Aggregation.newAggregation(operations), collection, Document.class).getUniqueMappedResult();
+        return null == document ? 0L : ((Number) document.get("total")).longValue();
+    }
+
+    /**
+     * 游标分页查询的总数，没有筛选条件时使用集合元数据中的估算值，否则在 countExpire 毫秒内复用上次的结果
+     */
+    private Long cursorCount(String collection, PointValueDto pointValueDto, Pages pages, boolean bucket) {
+        boolean filtered = StrUtil.isNotEmpty(pointValueDto.getPointId()) || pages.getStartTime() > 0 || pages.getEndTime() > 0;
+        if (!filtered && !bucket) {
+            return mongoTemplate.estimatedCount(collection);
+        }
+
+        String key = collection + CommonConstant.Symbol.SEPARATOR + pointValueDto.getPointId() + CommonConstant.Symbol.SEPARATOR + pages.getStartTime() + CommonConstant.Symbol.SEPARATOR + pages.getEndTime();
+        return countCache.get(key, k -> {
+            Criteria criteria = new Criteria();
+            if (StrUtil.isNotEmpty(pointValueDto.getPointId())) criteria.and("pointId").is(pointValueDto.getPointId());
+            boolean ranged = pages.getStartTime() > 0 && pages.getEndTime() > 0 && pages.getStartTime() <= pages.getEndTime();
+            if (bucket) {
+                Criteria sampleCriteria = null;
+                if (ranged) {
+                    criteria.and("start").lte(new Date(pages.getEndTime())).and("lastTime").gte(new Date(pages.getStartTime()));
+                    sampleCriteria = Criteria.where("samples.t").gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
+                }
+                return bucketCount(collection, criteria, sampleCriteria);
+            }
+            if (ranged) {
+                criteria.and(mongoProperty.getTimeField()).gte(new Date(pages.getStartTime())).lte(new Date(pages.getEndTime()));
+            }
+            return mongoTemplate.count(new Query(criteria), collection);
+        });
+    }
+
+    /**
+     * 分桶中数据的时间范围条件，startTime、endTime 均为 null 时返回 null
+     */
+    private Criteria sampleTimeCriteria(Date startTime, Date endTime) {
+        if (null == startTime && null == endTime) {
+            return null;
+        }
+
+        Criteria criteria = Criteria.where("samples.t");
+        if (null != startTime) criteria.gte(startTime);
+        if (null != endTime) criteria.lte(endTime);
+        return criteria;
+    }
+
+    /**
+     * 从 PointValueHotWindow 查询单个位号的数据，需要指定设备、位号与开始时间，范围不在窗口内时返回 null
+     */
+    private List<PointValue> hotRange(PointValueDto pointValueDto, long startTime, long endTime) {
+        if (StrUtil.isEmpty(pointValueDto.getDeviceId()) || StrUtil.isEmpty(pointValueDto.getPointId()) || startTime <= 0 || endTime <= 0 || startTime > endTime) {
+            return null;
+        }
+        return pointValueHotWindow.range(pointValueDto.getDeviceId(), pointValueDto.getPointId(), startTime, endTime);
+    }
+
+    /**
+     * 位号数据的排序时间
+     */
+    private Date time(PointValue pointValue) {
+        return "createTime".equals(mongoProperty.getTimeField()) ? pointValue.getCreateTime() : pointValue.getOriginTime();
+    }
+
+    /**
+     * 展开分桶中的数据，按数据时间倒序返回，同一时间的数据按位号倒序
+     *
+     * @param deviceId       Device Id
+     * @param bucketCriteria 分桶筛选条件
+     * @param sampleCriteria 数据筛选条件，可为 null
+     * @param bucketLimit    最多展开的分桶数量，按分桶时间倒序，0 表示不限制
+     * @param skip           Skip
+     * @param limit          Limit
+     * @return PointValue Array
+     */
+    private List<PointValue> bucketPointValues(String deviceId, Criteria bucketCriteria, Criteria sampleCriteria, int bucketLimit, long skip, long limit) {
+        List<AggregationOperation> operations = new ArrayList<>();
+        operations.add(Aggregation.match(bucketCriteria));
+        if (bucketLimit > 0) {
+            operations.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, "start", "lastTime")));
+            operations.add(Aggregation.limit(bucketLimit));
+        }
+        operations.add(Aggregation.unwind("samples"));
+        if (null != sampleCriteria) {
+            operations.add(Aggregation.match(sampleCriteria));
+        }
+        operations.add(Aggregation.sort(Sort.by(Sort.Direction.DESC, "samples.t", "pointId")));
+        if (skip > 0) {
+            operations.add(Aggregation.skip(skip));
+        }
+        operations.add(Aggregation.limit(limit));
+        operations.add(Aggregation.project("deviceId", "pointId")
+                .andExclude("_id")
+                .and("samples.v").as("value")
+                .and(ConditionalOperators.ifNull("samples.r").thenValueOf("samples.v")).as("rawValue")
+                .and("samples.t").as("originTime")
+                .and("samples.c").as("createTime"));
+
+        Aggregation aggregation = Aggregation.newAggregation(operations).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+        return mongoTemplate.aggregate(aggregation, CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX + deviceId, PointValue.class).getMappedResults();
+    }
+
+    /**
+     * 集合是否为时序集合，只有 TIME_SERIES 存储方式下会存在时序集合
+     */
+    private boolean isTimeSeriesCollection(String collection) {
+        if (!MongoProperty.Mode.TIME_SERIES.equals(mongoProperty.getMode())) {
+            return false;
+        }
+        Boolean timeSeries = timeSeriesCollections.get(collection);
+        if (null != timeSeries) {
+            return timeSeries;
+        }
+
+        // 集合尚未创建时不缓存，首次写入时才会创建为时序集合
+        Document document = mongoTemplate.getDb().listCollections().filter(new Document("name", collection)).first();
+        if (null == document) {
+            return false;
+        }
+        timeSeries = "timeseries".equals(document.getString("type"));
+        timeSeriesCollections.put(collection, timeSeries);
+        return timeSeries;
+    }
+
+    /**
+     * 游标，time 与 key 为上一页最后一条数据的时间与排序键，skip 为该时间与排序键上已返回的数据数量
+     * <p>
+     * 排序键在各种存储方式与进程内窗口中均为 pointId，翻页时数据来源变化也能继续使用同一个游标。下一页查询时间小于 time，
+     * 或时间等于 time 且位号不大于 key 的数据并跳过 skip 条，只需跳过少量数据，耗时与翻页深度无关。
+     */
+    static class Cursor {
+        private final long time;
+        private final String key;
+        private final int skip;
+
+        Cursor(long time, String key, int skip) {
+            this.time = time;
+            this.key = key;
+            this.skip = skip;
+        }
+
+        static Cursor decode(String cursor) {
+            if (StrUtil.isEmpty(cursor)) {
+                return null;
+            }
+
+            try {
+                String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                String[] parts = text.split(CommonConstant.Symbol.SEPARATOR, 3);
+                return new Cursor(Long.parseLong(parts[0]), parts.length > 2 ? parts[2] : null, Integer.parseInt(parts[1]));
+            } catch (Exception e) {
+                throw new ServiceException("Invalid point value cursor: {}", cursor);
+            }
+        }
+
+        static Cursor next(Cursor previous, List<PointValue> pointValues, Function<PointValue, Date> timeFunction) {
+            PointValue lastValue = pointValues.get(pointValues.size() - 1);
+            Date last = timeFunction.apply(lastValue);
+            long time = null == last ? 0 : last.getTime();
+            String key = lastValue.getPointId();
+            int skip = 0;
+            for (int i = pointValues.size() - 1; i >= 0; i--) {
+                Date date = timeFunction.apply(pointValues.get(i));
+                if (null == date || date.getTime() != time || !Objects.equals(key, pointValues.get(i).getPointId())) {
+                    break;
+                }
+                skip++;
+            }
+            // 整页数据与上一页最后一条的时间与排序键相同时，累加上一页已跳过的数量
+            if (null != previous && previous.time == time && Objects.equals(previous.key, key) && skip == pointValues.size()) {
+                skip += previous.skip;
+            }
+            return new Cursor(time, key, skip);
+        }
+
+        String encode() {
+            String text = time + CommonConstant.Symbol.SEPARATOR + skip + (null != key ? CommonConstant.Symbol.SEPARATOR + key : "");
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+        }
     }
 }
@@ -16,27 +16,45 @@
 
 package io.github.pnoker.center.data.service.impl;
 
+import io.github.pnoker.center.data.bean.FilterProperty;
+import io.github.pnoker.center.data.bean.RepositoryProperty;
 import io.github.pnoker.center.data.service.RepositoryHandleService;
 import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.service.cache.PointValueHotWindow;
+import io.github.pnoker.center.data.service.filter.PointValueFilter;
+import io.github.pnoker.center.data.service.pipeline.RepositoryPipeline;
+import io.github.pnoker.center.data.service.rollup.PointValueRollup;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.constant.CommonConstant;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
+ * 每个 Repository 通过独立的 RepositoryPipeline 写入，互不影响；
+ * 批量保存的结果只取决于主存储（默认为 Redis、Mongo），其他 Repository 尽力写入。
+ * Redis 保存全部实时数据，其他历史存储只保存经过 PointValueFilter 过滤后的数据；
+ * 过滤状态立即生效，任一主存储写入失败时回退，旋转门压缩暂存的数据定时检查并在停止服务前保存。
+ * 全部主存储保存成功后才将过滤后的数据写入 PointValueHotWindow 并累加汇总数据；
+ * 保存失败时两者都不写入，重新投递的数据再次通过过滤，保存成功后只写入一次。
+ *
  * @author pnoker
  */
 @Slf4j
 @Service
-public class RepositoryHandleServiceImpl implements RepositoryHandleService {
+public class RepositoryHandleServiceImpl implements RepositoryHandleService, InitializingBean, DisposableBean {
 
     @Value("${data.point.sava.influxdb.enable}")
     private Boolean enableInfluxdb;
@@ -51,99 +69,165 @@ public class RepositoryHandleServiceImpl implements RepositoryHandleService {
     private RepositoryService mongoRepositoryService;
 
     @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private RepositoryProperty repositoryProperty;
+    @Resource
+    private FilterProperty filterProperty;
+    @Resource
+    private PointValueFilter pointValueFilter;
+    @Resource
+    private PointValueHotWindow pointValueHotWindow;
+    @Resource
+    private PointValueRollup pointValueRollup;
+    @Resource
+    private MeterRegistry meterRegistry;
+    @Resource
+    private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+    private final List<String> repositories = new ArrayList<>();
+    private final Map<String, RepositoryPipeline> pipelineMap = new ConcurrentHashMap<>();
 
     @Override
     public void save(PointValue pointValue) {
-        // 保存单个数据到 Redis
-        threadPoolExecutor.execute(() -> {
-            try {
-                redisRepositoryService.savePointValue(pointValue);
-            } catch (Exception e) {
-                log.error("Save point value to redis error {}", e.getMessage());
-            }
-        });
-
-        // 保存单个数据到 Mongo
-        threadPoolExecutor.execute(() -> {
-            try {
-                mongoRepositoryService.savePointValue(pointValue);
-            } catch (Exception e) {
-                log.error("Save point value to mongo error {}", e.getMessage());
-            }
-        });
+        save(Collections.singletonList(pointValue));
+    }
 
-        // 保存单个数据到其他 Repository
-        threadPoolExecutor.execute(() -> {
-            try {
-                if (enableInfluxdb) {
-                    // 保存单个数据到 Influxdb
+    @Override
+    public CompletableFuture<Void> save(List<PointValue> pointValues) {
+        final Map<String, List<PointValue>> group = pointValues.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(group.size() + 1);
+
+        RepositoryPipeline realtimePipeline = getPipeline(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS);
+        if (null != realtimePipeline) {
+            group.forEach((deviceId, values) -> {
+                CompletableFuture<Void> future = realtimePipeline.submit(deviceId, values);
+                if (realtimePipeline.isPrimary()) {
+                    futures.add(future);
                 }
+            });
+        }
+        PointValueFilter.Result result = pointValueFilter.filter(pointValues);
+        futures.add(saveHistory(result.getValues()));
+        return complete(result, CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])));
+    }
 
-                if (enableOpentsdb) {
-                    // 保存单个数据到 Opentsdb
-                    RepositoryService repositoryService = RepositoryStrategyFactory.get(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_OPENTSDB);
-                    repositoryService.savePointValue(pointValue);
-                }
+    @Override
+    public void afterPropertiesSet() {
+        repositories.add(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS);
+        repositories.add(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_MONGO);
+        if (enableInfluxdb) {
+            repositories.add(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_INFLUXDB);
+        }
+        if (enableOpentsdb) {
+            repositories.add(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_OPENTSDB);
+        }
+        if (enableElasticsearch) {
+            repositories.add(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_ELASTICSEARCH);
+        }
+
+        pipelineMap.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS, createPipeline(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS, redisRepositoryService));
+        pipelineMap.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_MONGO, createPipeline(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_MONGO, mongoRepositoryService));
+
+        if (filterProperty.isEnable()) {
+            scheduledThreadPoolExecutor.scheduleWithFixedDelay(() -> flushFilter(false), filterProperty.getFlushInterval(), filterProperty.getFlushInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
 
-                if (enableElasticsearch) {
-                    // 保存单个数据到 Elasticsearch
-                    RepositoryService repositoryService = RepositoryStrategyFactory.get(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_ELASTICSEARCH);
-                    repositoryService.savePointValue(pointValue);
-                }
-            } catch (Exception e) {
-                log.error("Save point value to repository error {}", e.getMessage());
+    @Override
+    public void destroy() {
+        flushFilter(true);
+        pipelineMap.values().forEach(pipeline -> pipeline.shutdown(10000));
+    }
+
+    /**
+     * 保存过滤中暂存的数据
+     *
+     * @param all 为 true 时保存全部暂存数据，否则只保存超过 heartbeat 没有新数据的位号
+     */
+    private void flushFilter(boolean all) {
+        try {
+            PointValueFilter.Result result = pointValueFilter.flush(all);
+            if (!result.getValues().isEmpty()) {
+                complete(result, saveHistory(result.getValues()));
             }
-        });
+        } catch (Exception e) {
+            log.error("Flush point value filter error: {}", e.getMessage(), e);
+        }
     }
 
-    @Override
-    public void save(List<PointValue> pointValues) {
-        final Map<String, List<PointValue>> group = pointValues.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+    /**
+     * 获取 Repository 的写入管道，其他 Repository 在首次使用时创建，未注册的 Repository 返回 null
+     *
+     * @param name Repository Name
+     * @return RepositoryPipeline
+     */
+    private RepositoryPipeline getPipeline(String name) {
+        RepositoryPipeline pipeline = pipelineMap.get(name);
+        if (null != pipeline) {
+            return pipeline;
+        }
+
+        RepositoryService repositoryService = RepositoryStrategyFactory.get(name);
+        if (null == repositoryService) {
+            return null;
+        }
+        return pipelineMap.computeIfAbsent(name, key -> createPipeline(key, repositoryService));
+    }
 
-        group.forEach((deviceId, values) -> {
-            // 保存批量数据到 Redis
-            threadPoolExecutor.execute(() -> {
-                try {
-                    redisRepositoryService.savePointValues(deviceId, values);
-                } catch (Exception e) {
-                    log.error("Save point values to redis error {}", e.getMessage());
-                }
-            });
+    /**
+     * 过滤后的数据写入历史存储
+     *
+     * @param historyValues 过滤后的 PointValue Array
+     * @return CompletableFuture，主存储中的历史存储写入完成后完成
+     */
+    private CompletableFuture<Void> saveHistory(List<PointValue> historyValues) {
+        final Map<String, List<PointValue>> historyGroup = historyValues.stream().collect(Collectors.groupingBy(PointValue::getDeviceId));
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(historyGroup.size());
+
+        for (String repository : repositories) {
+            RepositoryPipeline pipeline = getPipeline(repository);
+            if (null == pipeline || CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS.equals(repository)) {
+                continue;
+            }
 
-            // 保存批量数据到 Mongo
-            threadPoolExecutor.execute(() -> {
-                try {
-                    mongoRepositoryService.savePointValues(deviceId, values);
-                } catch (Exception e) {
-                    log.error("Save point values to mongo error {}", e.getMessage());
+            historyGroup.forEach((deviceId, values) -> {
+                CompletableFuture<Void> future = pipeline.submit(deviceId, values);
+                if (pipeline.isPrimary()) {
+                    futures.add(future);
                 }
             });
+        }
 
-            // 保存批量数据到其他 Repository
-            threadPoolExecutor.execute(() -> {
-                try {
-                    if (enableInfluxdb) {
-                        // 保存批量数据到 Influxdb
-                    }
-
-                    if (enableOpentsdb) {
-                        // 保存批量数据到 Opentsdb
-                        RepositoryService repositoryService = RepositoryStrategyFactory.get(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_OPENTSDB);
-                        repositoryService.savePointValues(deviceId, values);
-                    }
-
-                    if (enableElasticsearch) {
-                        // 保存批量数据到 Elasticsearch
-                        RepositoryService repositoryService = RepositoryStrategyFactory.get(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_ELASTICSEARCH);
-                        repositoryService.savePointValues(deviceId, values);
-                    }
-                } catch (Exception e) {
-                    log.error("Save point values to repository error {}", e.getMessage());
-                }
-            });
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 全部主存储保存成功后，过滤后的数据写入进程内窗口并累加汇总数据；任一主存储保存失败时回退过滤状态
+     *
+     * @param result PointValueFilter.Result
+     * @param future 全部主存储写入完成后完成的 CompletableFuture
+     * @return CompletableFuture，写入进程内窗口或回退过滤状态后完成
+     */
+    private CompletableFuture<Void> complete(PointValueFilter.Result result, CompletableFuture<Void> future) {
+        return future.whenComplete((r, e) -> {
+            if (null != e) {
+                pointValueFilter.rollback(result);
+                return;
+            }
+
+            try {
+                pointValueHotWindow.put(result.getValues());
+                pointValueRollup.accumulate(result.getValues());
+            } catch (Exception ex) {
+                log.error("Update point value hot window and rollup error: {}", ex.getMessage(), ex);
+            }
         });
+    }
 
+    private RepositoryPipeline createPipeline(String name, RepositoryService repositoryService) {
+        RepositoryProperty.PipelineProperty property = repositoryProperty.getPipeline(name);
+        log.info("Create repository({}) pipeline, primary: {}, pool size: {}, queue size: {}, batch size: {}, failure policy: {}",
+                name, property.isPrimary(), property.getPoolSize(), property.getQueueSize(), property.getBatchSize(), property.getFailurePolicy());
+        return new RepositoryPipeline(name, repositoryService, property, repositoryProperty.getSpool(), meterRegistry);
     }
 
 }
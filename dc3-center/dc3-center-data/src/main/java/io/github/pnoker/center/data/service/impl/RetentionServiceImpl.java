@@ -0,0 +1,232 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import io.github.pnoker.api.center.manager.feign.DeviceClient;
+import io.github.pnoker.center.data.bean.RetentionProperty;
+import io.github.pnoker.center.data.service.RetentionService;
+import io.github.pnoker.center.data.service.rollup.PointValueRollup;
+import io.github.pnoker.common.bean.R;
+import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.model.Device;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 位号数据保留策略 Service Impl
+ * <p>
+ * 按设备所属租户、模板匹配保留策略，原始数据与各粒度汇总数据分别保留不同天数：
+ * 普通集合与分桶集合按时间条件每次删除 batchSize 条，并按 rate 限制每秒删除数量，避免影响数据写入；
+ * 时序集合不支持按时间删除，通过 collMod 修改集合的 expireAfterSeconds 由 Mongo 自动过期。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Service
+public class RetentionServiceImpl implements RetentionService {
+
+    private static final String TYPE_TIME_SERIES = "timeseries";
+
+    @Resource
+    private RetentionProperty retentionProperty;
+    @Resource
+    private DeviceClient deviceClient;
+    @Resource
+    private MongoTemplate mongoTemplate;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Override
+    public void clean() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            List<Target> targets = targets();
+            Map<String, Device> devices = devices(targets.stream().map(target -> target.deviceId).collect(Collectors.toSet()));
+            if (null == devices) {
+                return;
+            }
+
+            RateLimiter rateLimiter = RateLimiter.create(retentionProperty.getRate());
+            long deleted = 0;
+            for (Target target : targets) {
+                Device device = devices.get(target.deviceId);
+                RetentionProperty.Policy policy = null != device ? retentionProperty.getPolicy(device.getTenantId(), device.getProfileIds()) : retentionProperty.getPolicy(null, null);
+                deleted += clean(target, policy, rateLimiter);
+            }
+            log.info("Point value retention finished, collections: {}, deleted: {}, cost: {}ms", targets.size(), deleted, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Point value retention error: {}", e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long clean(Target target, RetentionProperty.Policy policy, RateLimiter rateLimiter) {
+        int days = target.days(policy);
+        if (days <= 0) {
+            return 0;
+        }
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        switch (target.kind) {
+            case TIME_SERIES:
+                expire(target.collection, TimeUnit.DAYS.toSeconds(days));
+                return 0;
+            case BUCKET:
+                return delete(target.collection, Filters.lt("lastTime", new Date(cutoff)), rateLimiter);
+            case ROLLUP:
+                // 只删除整个时间窗口都已过期的汇总数据
+                return delete(target.collection, Filters.lt("start", new Date(cutoff - target.level.getWidth())), rateLimiter);
+            default:
+                return delete(target.collection, Filters.lt("createTime", new Date(cutoff)), rateLimiter);
+        }
+    }
+
+    /**
+     * 分批删除符合条件的数据，每批先按索引查询 _id 再删除
+     */
+    private long delete(String collection, Bson filter, RateLimiter rateLimiter) {
+        MongoCollection<Document> mongoCollection = mongoTemplate.getCollection(collection);
+        long deleted = 0;
+        while (true) {
+            List<Object> ids = new ArrayList<>(retentionProperty.getBatchSize());
+            mongoCollection.find(filter).projection(Projections.include("_id")).limit(retentionProperty.getBatchSize()).forEach(document -> ids.add(document.get("_id")));
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            rateLimiter.acquire(ids.size());
+            deleted += mongoCollection.deleteMany(Filters.in("_id", ids)).getDeletedCount();
+            if (ids.size() < retentionProperty.getBatchSize()) {
+                break;
+            }
+        }
+        if (deleted > 0) {
+            log.debug("Point value retention {} deleted: {}", collection, deleted);
+        }
+        return deleted;
+    }
+
+    /**
+     * 修改时序集合的过期时间，已相同时跳过
+     */
+    private void expire(String collection, long seconds) {
+        Document options = mongoTemplate.getDb().listCollections().filter(Filters.eq("name", collection)).map(document -> document.get("options", Document.class)).first();
+        Object current = null != options ? options.get("expireAfterSeconds") : null;
+        if (current instanceof Number && ((Number) current).longValue() == seconds) {
+            return;
+        }
+
+        mongoTemplate.getDb().runCommand(new Document("collMod", collection).append("expireAfterSeconds", seconds));
+        log.info("Point value retention {} expire after: {}s", collection, seconds);
+    }
+
+    /**
+     * 查询设备，用于匹配租户与模板，查询失败时返回 null，本次不清理，避免对设备使用错误的策略
+     */
+    private Map<String, Device> devices(Set<String> deviceIds) {
+        Map<String, Device> devices = new HashMap<>(deviceIds.size() * 2);
+        for (List<String> partition : Lists.partition(new ArrayList<>(deviceIds), 500)) {
+            R<Map<String, Device>> r = deviceClient.selectByIds(new HashSet<>(partition));
+            if (!r.isOk()) {
+                log.warn("Point value retention skipped, select device error: {}", r.getMessage());
+                return null;
+            }
+            devices.putAll(r.getData());
+        }
+        return devices;
+    }
+
+    /**
+     * 所有位号数据集合，按集合名称前缀区分原始、分桶与汇总集合
+     */
+    private List<Target> targets() {
+        List<Target> targets = new ArrayList<>();
+        for (Document document : mongoTemplate.getDb().listCollections()) {
+            String name = document.getString("name");
+            if (!name.startsWith(CommonConstant.Storage.POINT_VALUE_PREFIX)) {
+                continue;
+            }
+
+            if (name.startsWith(CommonConstant.Storage.POINT_VALUE_ROLLUP_PREFIX)) {
+                String suffix = name.substring(CommonConstant.Storage.POINT_VALUE_ROLLUP_PREFIX.length());
+                for (PointValueRollup.Level level : PointValueRollup.Level.values()) {
+                    String prefix = level.getCode() + CommonConstant.Symbol.UNDERSCORE;
+                    if (suffix.startsWith(prefix)) {
+                        targets.add(new Target(name, Kind.ROLLUP, level, suffix.substring(prefix.length())));
+                    }
+                }
+            } else if (name.startsWith(CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX)) {
+                targets.add(new Target(name, Kind.BUCKET, null, name.substring(CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX.length())));
+            } else {
+                Kind kind = TYPE_TIME_SERIES.equals(document.getString("type")) ? Kind.TIME_SERIES : Kind.DOCUMENT;
+                targets.add(new Target(name, kind, null, name.substring(CommonConstant.Storage.POINT_VALUE_PREFIX.length())));
+            }
+        }
+        return targets;
+    }
+
+    private enum Kind {
+        DOCUMENT, TIME_SERIES, BUCKET, ROLLUP
+    }
+
+    private static class Target {
+        private final String collection;
+        private final Kind kind;
+        private final PointValueRollup.Level level;
+        private final String deviceId;
+
+        Target(String collection, Kind kind, PointValueRollup.Level level, String deviceId) {
+            this.collection = collection;
+            this.kind = kind;
+            this.level = level;
+            this.deviceId = deviceId;
+        }
+
+        int days(RetentionProperty.Policy policy) {
+            if (Kind.ROLLUP != kind) {
+                return policy.getRaw();
+            }
+            switch (level) {
+                case MINUTE:
+                    return policy.getMinute();
+                case HOUR:
+                    return policy.getHour();
+                default:
+                    return policy.getDay();
+            }
+        }
+    }
+}
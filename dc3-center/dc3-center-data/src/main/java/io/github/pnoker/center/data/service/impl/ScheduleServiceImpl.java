@@ -16,7 +16,9 @@
 
 package io.github.pnoker.center.data.service.impl;
 
+import io.github.pnoker.center.data.bean.RetentionProperty;
 import io.github.pnoker.center.data.service.ScheduleService;
+import io.github.pnoker.center.data.service.job.PointValueRetentionJob;
 import io.github.pnoker.center.data.service.job.PointValueScheduleJob;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -38,10 +40,15 @@ public class ScheduleServiceImpl implements ScheduleService {
 
     @Resource
     private Scheduler scheduler;
+    @Resource
+    private RetentionProperty retentionProperty;
 
     @Override
     public void initial() {
         createScheduleJobWithInterval("ScheduleGroup", "PointValueScheduleJob", interval, PointValueScheduleJob.class);
+        if (retentionProperty.isEnable()) {
+            createScheduleJobWithInterval("ScheduleGroup", "PointValueRetentionJob", retentionProperty.getInterval(), PointValueRetentionJob.class);
+        }
         try {
             if (!scheduler.isShutdown()) {
                 scheduler.start();
@@ -17,36 +17,82 @@
 package io.github.pnoker.center.data.service.impl.repository;
 
 import cn.hutool.core.util.StrUtil;
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.BulkRequest;
-import co.elastic.clients.elasticsearch.core.BulkResponse;
-import co.elastic.clients.elasticsearch.core.IndexRequest;
-import co.elastic.clients.elasticsearch.core.IndexResponse;
-import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.service.pipeline.ElasticsearchBulkIngester;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.bean.point.EsPointValue;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.constant.CommonConstant;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
+ * 位号数据通过 ElasticsearchBulkIngester 批量写入按时间滚动的索引
+ * <p>
+ * 索引名称为 index-prefix 加上位号数据 originTime 所在的日期（yyyy.MM.dd）或月份（yyyy.MM），UTC 时区；
+ * 启动时创建匹配 index-prefix* 的索引模板，统一新索引的分片、刷新间隔与字段映射。
+ * 批次写入完成（包括被拒绝操作的重试）后才返回，仍有操作失败时抛出异常，由 elasticsearch 写入管道按失败处理策略处理。
+ *
  * @author pnoker
  */
 @Slf4j
 @Service
 @ConditionalOnProperty(name = "data.point.sava.elasticsearch.enable", havingValue = "true")
-public class ElasticsearchServiceImpl implements RepositoryService, InitializingBean {
+public class ElasticsearchServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
+
+    /**
+     * 每个操作除字段值之外的估算字节数
+     */
+    private static final int OPERATION_OVERHEAD = 256;
+
+    @Value("${data.point.sava.elasticsearch.index-prefix}")
+    private String indexPrefix;
+    @Value("${data.point.sava.elasticsearch.index-period}")
+    private String indexPeriod;
+    @Value("${data.point.sava.elasticsearch.shards}")
+    private String shards;
+    @Value("${data.point.sava.elasticsearch.replicas}")
+    private String replicas;
+    @Value("${data.point.sava.elasticsearch.refresh-interval}")
+    private String refreshInterval;
+    @Value("${data.point.sava.elasticsearch.bulk.actions}")
+    private Integer bulkActions;
+    @Value("${data.point.sava.elasticsearch.bulk.bytes}")
+    private Long bulkBytes;
+    @Value("${data.point.sava.elasticsearch.bulk.flush-interval}")
+    private Long bulkFlushInterval;
+    @Value("${data.point.sava.elasticsearch.bulk.concurrent-requests}")
+    private Integer bulkConcurrentRequests;
+    @Value("${data.point.sava.elasticsearch.bulk.retry-times:3}")
+    private Integer bulkRetryTimes;
+    @Value("${data.point.sava.elasticsearch.bulk.retry-interval:500}")
+    private Long bulkRetryInterval;
 
     @Resource
     private ElasticsearchClient elasticsearchClient;
+    @Resource
+    private ElasticsearchAsyncClient elasticsearchAsyncClient;
+
+    private DateTimeFormatter indexFormatter;
+    private ElasticsearchBulkIngester bulkIngester;
 
     @Override
     public void savePointValue(PointValue pointValue) {
@@ -54,17 +100,7 @@ public class ElasticsearchServiceImpl implements RepositoryService, Initializing
             return;
         }
 
-        final String index = CommonConstant.Storage.POINT_VALUE_PREFIX + pointValue.getDeviceId();
-        IndexRequest<EsPointValue> indexRequest = new IndexRequest.Builder<EsPointValue>()
-                .index(index)
-                .document(new EsPointValue(pointValue))
-                .build();
-        try {
-            IndexResponse response = elasticsearchClient.index(indexRequest);
-            log.info("Send pointValue to elasticsearch, Response: {}, Version: {}", response.result(), response.version());
-        } catch (IOException e) {
-            log.error("Send pointValue to elasticsearch error: {}", e.getMessage(), e);
-        }
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
     }
 
     @Override
@@ -73,35 +109,90 @@ public class ElasticsearchServiceImpl implements RepositoryService, Initializing
             return;
         }
 
-        final String index = CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId;
-        BulkRequest.Builder bulkRequestBuilder = new BulkRequest.Builder();
-        pointValues.stream()
-                .filter(pointValue -> StrUtil.isNotEmpty(pointValue.getPointId()))
-                .forEach(pointValue -> bulkRequestBuilder.operations(operation -> operation
-                        .index(builder -> builder
-                                .index(index)
-                                .document(new EsPointValue(pointValue))
-                        )
-                ));
-
-        try {
-            BulkResponse response = elasticsearchClient.bulk(bulkRequestBuilder.build());
-            if (response.errors()) {
-                for (BulkResponseItem item : response.items()) {
-                    if (null != item.error()) {
-                        log.error("Send pointValue to elasticsearch error: {}", item.error().reason());
-                    }
-                }
+        List<CompletableFuture<Void>> futures = new ArrayList<>(pointValues.size());
+        for (PointValue pointValue : pointValues) {
+            if (StrUtil.isEmpty(pointValue.getPointId())) {
+                continue;
             }
-        } catch (IOException e) {
-            log.error("Send pointValue to elasticsearch error: {}", e.getMessage(), e);
+
+            final String index = index(pointValue);
+            final String id = id(pointValue);
+            final EsPointValue document = new EsPointValue(pointValue);
+            BulkOperation operation = BulkOperation.of(builder -> builder.index(i -> i.index(index).id(id).document(document)));
+            futures.add(bulkIngester.add(operation, size(pointValue)));
+        }
+        if (futures.isEmpty()) {
+            return;
         }
 
+        // 批次已由写入管道聚合，立即发送，不等待 flush-interval
+        bulkIngester.flush();
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
 
     @Override
     public void afterPropertiesSet() {
+        indexFormatter = DateTimeFormatter.ofPattern("month".equalsIgnoreCase(indexPeriod) ? "yyyy.MM" : "yyyy.MM.dd").withZone(ZoneOffset.UTC);
+        putIndexTemplate();
+        bulkIngester = new ElasticsearchBulkIngester(elasticsearchAsyncClient, bulkActions, bulkBytes, bulkFlushInterval, bulkConcurrentRequests, bulkRetryTimes, bulkRetryInterval);
         RepositoryStrategyFactory.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_ELASTICSEARCH, this);
     }
 
-}
\ No newline at end of file
+    @Override
+    public void destroy() {
+        bulkIngester.close(10000);
+    }
+
+    private String index(PointValue pointValue) {
+        Date time = null != pointValue.getOriginTime() ? pointValue.getOriginTime() : pointValue.getCreateTime();
+        Instant instant = null != time ? time.toInstant() : Instant.now();
+        return indexPrefix + indexFormatter.format(instant);
+    }
+
+    /**
+     * 同一位号同一时刻的数据使用相同的文档 ID，写入管道重试整个批次时覆盖已写入的文档而不是重复写入
+     */
+    private String id(PointValue pointValue) {
+        Date time = null != pointValue.getOriginTime() ? pointValue.getOriginTime() : pointValue.getCreateTime();
+        return null != time ? pointValue.getPointId() + "_" + time.getTime() : null;
+    }
+
+    private long size(PointValue pointValue) {
+        long size = OPERATION_OVERHEAD;
+        size += null != pointValue.getValue() ? pointValue.getValue().length() : 0;
+        size += null != pointValue.getRawValue() ? pointValue.getRawValue().length() : 0;
+        return size;
+    }
+
+    /**
+     * 创建或更新位号数据索引模板，失败时使用 Elasticsearch 默认映射
+     */
+    private void putIndexTemplate() {
+        try {
+            elasticsearchClient.indices().putIndexTemplate(template -> template
+                    .name(indexPrefix + "template")
+                    .indexPatterns(indexPrefix + "*")
+                    .template(t -> t
+                            .settings(settings -> settings
+                                    .numberOfShards(shards)
+                                    .numberOfReplicas(replicas)
+                                    .refreshInterval(interval -> interval.time(refreshInterval)))
+                            .mappings(mappings -> mappings
+                                    .properties("deviceId", property -> property.keyword(keyword -> keyword))
+                                    .properties("pointId", property -> property.keyword(keyword -> keyword))
+                                    .properties("value", property -> property.keyword(keyword -> keyword))
+                                    .properties("rawValue", property -> property.keyword(keyword -> keyword))
+                                    .properties("children", property -> property.keyword(keyword -> keyword))
+                                    .properties("originTime", property -> property.date(date -> date))
+                                    .properties("createTime", property -> property.date(date -> date)))));
+            log.info("Put elasticsearch index template {}*", indexPrefix);
+        } catch (Exception e) {
+            log.error("Put elasticsearch index template error: {}", e.getMessage(), e);
+        }
+    }
+
+}
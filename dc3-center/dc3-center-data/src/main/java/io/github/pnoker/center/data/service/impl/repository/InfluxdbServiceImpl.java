@@ -0,0 +1,291 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import cn.hutool.core.util.StrUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.pnoker.api.center.manager.feign.PointClient;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
+import io.github.pnoker.common.bean.R;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.constant.ValueConstant;
+import io.github.pnoker.common.exception.ServiceException;
+import io.github.pnoker.common.model.Point;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 位号数据以 InfluxDB Line Protocol 写入 InfluxDB 2.x
+ * <p>
+ * 每个位号数据为一行：measurement 为 point_value，tag 为 device、point，时间精度为毫秒。
+ * InfluxDB 中同一 field 只能有一种类型，因此 field 名称带有类型后缀：value_float、value_int、value_bool、value_str，
+ * rawValue 对应 raw_value_float 等；位号类型按 Manager 中的配置确定，未配置类型的位号写为 string。
+ * 查询 Manager 失败时写入失败，由 influxdb 写入管道按失败处理策略（默认 retry）重试，不会写入类型错误的数据；
+ * Manager 中已不存在的位号（如数据保存前被删除）同样写为 string，不会阻塞整个设备的写入。
+ * <p>
+ * 每次写入为一个 gzip 压缩的请求，批量大小与并发由 influxdb 写入管道的 batch-size、pool-size 控制，
+ * 请求失败时抛出异常，由写入管道按失败处理策略重试或暂存。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "data.point.sava.influxdb.enable", havingValue = "true")
+public class InfluxdbServiceImpl implements RepositoryService, InitializingBean {
+
+    private static final String MEASUREMENT = "point_value";
+    private static final MediaType TEXT = MediaType.parse("text/plain; charset=utf-8");
+
+    @Value("${data.point.sava.influxdb.host}")
+    private String host;
+    @Value("${data.point.sava.influxdb.port}")
+    private Integer port;
+    @Value("${data.point.sava.influxdb.org}")
+    private String organization;
+    @Value("${data.point.sava.influxdb.bucket}")
+    private String bucket;
+    @Value("${data.point.sava.influxdb.token}")
+    private String token;
+
+    @Resource
+    private PointClient pointClient;
+    @Resource(name = "influxdbOkHttpClient")
+    private OkHttpClient okHttpClient;
+
+    private final Cache<String, String> pointTypeCache = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private String writeUrl;
+
+    @Override
+    public void savePointValue(PointValue pointValue) {
+        if (!StrUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
+            return;
+        }
+
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+    }
+
+    @Override
+    public void savePointValues(String deviceId, List<PointValue> pointValues) {
+        if (StrUtil.isEmpty(deviceId)) {
+            return;
+        }
+
+        Map<String, String> types = pointTypes(pointValues);
+        StringBuilder builder = new StringBuilder(pointValues.size() * 96);
+        int count = 0;
+        for (PointValue pointValue : pointValues) {
+            if (StrUtil.isEmpty(pointValue.getPointId())) {
+                continue;
+            }
+            String type = types.getOrDefault(pointValue.getPointId(), ValueConstant.Type.STRING);
+            if (appendLine(builder, deviceId, pointValue, type)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            send(builder.toString());
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        writeUrl = String.format("http://%s:%s/api/v2/write?org=%s&bucket=%s&precision=ms", host, port, organization, bucket);
+        RepositoryStrategyFactory.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_INFLUXDB, this);
+    }
+
+    private void send(String batch) {
+        Request.Builder builder = new Request.Builder()
+                .url(writeUrl)
+                .header("Content-Encoding", "gzip")
+                .post(RequestBody.create(gzip(batch), TEXT));
+        if (StrUtil.isNotEmpty(token)) {
+            builder.header("Authorization", "Token " + token);
+        }
+
+        try (Response response = okHttpClient.newCall(builder.build()).execute()) {
+            if (!response.isSuccessful()) {
+                ResponseBody body = response.body();
+                throw new ServiceException("Send point values to influxdb error, code: {}, {}", response.code(), null != body ? body.string() : response.message());
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Send point values to influxdb error: {}", e.getMessage());
+        }
+    }
+
+    private byte[] gzip(String batch) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(batch.length() / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(batch.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * 获取位号类型，缓存中没有的位号批量从 Manager 获取，Manager 中不存在的位号不在结果中
+     *
+     * @param pointValues PointValue Array
+     * @return Map<PointId, Type>
+     */
+    private Map<String, String> pointTypes(List<PointValue> pointValues) {
+        Map<String, String> types = new HashMap<>(16);
+        Set<String> missing = new HashSet<>();
+        for (PointValue pointValue : pointValues) {
+            String pointId = pointValue.getPointId();
+            if (StrUtil.isEmpty(pointId) || types.containsKey(pointId)) {
+                continue;
+            }
+            String type = pointTypeCache.getIfPresent(pointId);
+            if (null != type) {
+                types.put(pointId, type);
+            } else {
+                missing.add(pointId);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return types;
+        }
+
+        R<Map<String, Point>> r;
+        try {
+            r = pointClient.selectByIds(missing);
+        } catch (Exception e) {
+            throw new ServiceException("Get point types error, write to influxdb later: {}", e.getMessage());
+        }
+        if (!r.isOk()) {
+            throw new ServiceException("Get point types error, write to influxdb later: {}", r.getMessage());
+        }
+
+        r.getData().forEach((pointId, point) -> {
+            String type = StrUtil.isNotEmpty(point.getType()) ? point.getType() : ValueConstant.Type.STRING;
+            pointTypeCache.put(pointId, type);
+            types.put(pointId, type);
+        });
+        missing.removeAll(r.getData().keySet());
+        if (!missing.isEmpty()) {
+            log.warn("Points not found in manager, write as string: {}", missing);
+        }
+        return types;
+    }
+
+    private boolean appendLine(StringBuilder builder, String deviceId, PointValue pointValue, String type) {
+        String value = fieldValue(type, pointValue.getValue());
+        if (null == value || null == pointValue.getOriginTime()) {
+            return false;
+        }
+
+        String suffix = fieldSuffix(type);
+        builder.append(MEASUREMENT)
+                .append(",device=").append(escapeKey(deviceId))
+                .append(",point=").append(escapeKey(pointValue.getPointId()))
+                .append(" value").append(suffix).append('=').append(value);
+        String rawValue = fieldValue(type, pointValue.getRawValue());
+        if (null != rawValue) {
+            builder.append(",raw_value").append(suffix).append('=').append(rawValue);
+        }
+        builder.append(' ').append(pointValue.getOriginTime().getTime()).append('\n');
+        return true;
+    }
+
+    /**
+     * 按位号类型转换为 Line Protocol field 值，无法转换时返回 null
+     *
+     * @param type  Point Type
+     * @param value Value
+     * @return Field Value
+     */
+    private String fieldValue(String type, String value) {
+        if (null == value) {
+            return null;
+        }
+
+        switch (type) {
+            case ValueConstant.Type.FLOAT:
+            case ValueConstant.Type.DOUBLE:
+                BigDecimal decimal = decimal(value);
+                return null != decimal ? decimal.toPlainString() : null;
+            case ValueConstant.Type.BYTE:
+            case ValueConstant.Type.SHORT:
+            case ValueConstant.Type.INT:
+            case ValueConstant.Type.LONG:
+                BigDecimal integer = decimal(value);
+                return null != integer ? integer.setScale(0, RoundingMode.HALF_UP).toPlainString() + "i" : null;
+            case ValueConstant.Type.BOOLEAN:
+                return Boolean.toString(Boolean.parseBoolean(value) || "1".equals(value));
+            default:
+                return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+        }
+    }
+
+    /**
+     * 按位号类型确定 field 名称后缀，同一 field 总是同一种类型
+     *
+     * @param type Point Type
+     * @return Field Suffix
+     */
+    private String fieldSuffix(String type) {
+        switch (type) {
+            case ValueConstant.Type.FLOAT:
+            case ValueConstant.Type.DOUBLE:
+                return "_float";
+            case ValueConstant.Type.BYTE:
+            case ValueConstant.Type.SHORT:
+            case ValueConstant.Type.INT:
+            case ValueConstant.Type.LONG:
+                return "_int";
+            case ValueConstant.Type.BOOLEAN:
+                return "_bool";
+            default:
+                return "_str";
+        }
+    }
+
+    private BigDecimal decimal(String value) {
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String escapeKey(String text) {
+        return text.replace(",", "\\,").replace("=", "\\=").replace(" ", "\\ ");
+    }
+}
@@ -16,42 +16,106 @@
 
 package io.github.pnoker.center.data.service.impl.repository;
 
+import cn.hutool.core.util.NumberUtil;
 import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.TimeSeriesOptions;
+import io.github.pnoker.center.data.bean.MongoProperty;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.bean.point.MgPointValue;
+import io.github.pnoker.common.bean.point.MgPointValueBucket;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.exception.ServiceException;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
 /**
+ * 位号数据通过无序 BulkOperations 批量写入，数据较多时拆分为多个分块，由 Mongo 独立的线程池并行写入，
+ * 线程池已满时由写入线程自己写入；已创建索引的集合会被记录，同一集合只检查一次索引。
+ * <p>
+ * 没有 id 的位号数据在写入前由内容生成 ObjectId，失败重试或暂存重放时重复写入的数据会因主键冲突被忽略，不会产生重复数据；
+ * 因此同一位号 originTime（毫秒）、value、rawValue 均相同的两个数据视为同一个数据，只保存一次。
+ * 驱动提供的 id 原样保存，能转换为 ObjectId 的按 ObjectId 保存，其他按字符串保存。
+ * 位号数据同时由其他 Repository 写入，因此只修改写入 Mongo 的副本。
+ * <p>
+ * 存储方式为 TIME_SERIES 时，新设备的集合创建为 MongoDB 原生时序集合，按 pointId 分组、按 originTime 列式压缩存储；
+ * 已存在的普通集合保持不变，但查询改为按 originTime 排序，因此同时为其创建 originTime 相关索引，
+ * 启动时会检查全部已有的普通集合。普通集合只创建以 _id 结尾的组合索引，不再单独创建其前缀索引，已创建的索引不会删除。时序集合没有唯一主键索引，重试时可能产生重复数据。
+ * <p>
+ * 存储方式为 BUCKET 时，同一位号同一时间窗口的数据通过 upsert 追加到同一个 MgPointValueBucket 文档，
+ * 并更新数量、最大最小值与首尾时间。同一时间窗口的分桶按 seq 编号，(pointId, start, seq) 唯一，
+ * 写入前查询各时间窗口最后一个分桶的数量，按剩余容量拆分数据，单个分桶最多 bucketSize 个数据。
+ * 同一位号 originTime 相同的数据只保存一次，重试写入时已写入的数据会被跳过；
+ * 其他实例同时写入导致容量不足时，upsert 因唯一索引冲突失败，只重新写入失败的部分。
+ *
  * @author pnoker
  */
 @Slf4j
 @Service
-public class MongoServiceImpl implements RepositoryService, InitializingBean {
+public class MongoServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
 
+    /**
+     * Mongo 主键冲突错误码
+     */
+    private static final int DUPLICATE_KEY = 11000;
+    /**
+     * Mongo 集合已存在错误码
+     */
+    private static final int NAMESPACE_EXISTS = 48;
+    private static final int MIN_CHUNK_SIZE = 100;
+    /**
+     * 分桶编号冲突时的最大写入次数
+     */
+    private static final int BUCKET_RETRY_TIMES = 3;
+
+    @Resource
+    private MongoProperty mongoProperty;
     @Resource
     private MongoTemplate mongoTemplate;
 
+    private final Set<String> indexedCollections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger bulkThreadAtomic = new AtomicInteger(1);
+    private final Striped<Lock> bucketLocks = Striped.lock(64);
+    private ThreadPoolExecutor bulkExecutor;
+
     @Override
     public void savePointValue(PointValue pointValue) {
         if (!StrUtil.isAllNotEmpty(pointValue.getDeviceId(), pointValue.getPointId())) {
             return;
         }
 
-        final String collection = CommonConstant.Storage.POINT_VALUE_PREFIX + pointValue.getDeviceId();
-        ensurePointValueIndex(collection);
-        mongoTemplate.insert(new MgPointValue(pointValue), collection);
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
     }
 
     @Override
@@ -61,38 +125,526 @@ public class MongoServiceImpl implements RepositoryService, InitializingBean {
         }
 
         final String collection = CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId;
-        ensurePointValueIndex(collection);
         final List<MgPointValue> batch = pointValues.stream()
                 .filter(pointValue -> StrUtil.isNotEmpty(pointValue.getPointId()))
-                .map(MgPointValue::new)
+                .map(pointValue -> {
+                    MgPointValue mgPointValue = new MgPointValue(pointValue);
+                    if (null == mgPointValue.getOriginTime()) {
+                        mgPointValue.setOriginTime(mgPointValue.getCreateTime());
+                    }
+                    if (null == mgPointValue.getId()) {
+                        mgPointValue.setId(objectId(mgPointValue));
+                    }
+                    return mgPointValue;
+                })
                 .collect(Collectors.toList());
-        mongoTemplate.insert(batch, collection);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (MongoProperty.Mode.BUCKET.equals(mongoProperty.getMode())) {
+            saveBuckets(deviceId, batch);
+            return;
+        }
+
+        ensurePointValueCollection(collection);
+
+        // 按并行度拆分，分块大小介于 MIN_CHUNK_SIZE 与 bulkSize 之间
+        int bulkSize = mongoProperty.getBulkSize();
+        int bulkParallelism = mongoProperty.getBulkParallelism();
+        int chunkSize = Math.min(bulkSize, Math.max(MIN_CHUNK_SIZE, (batch.size() + bulkParallelism - 1) / bulkParallelism));
+        List<List<MgPointValue>> chunks = Lists.partition(batch, chunkSize);
+        List<BulkCount> counts;
+        if (chunks.size() == 1) {
+            counts = Collections.singletonList(bulkInsert(collection, chunks.get(0)));
+        } else {
+            List<CompletableFuture<BulkCount>> futures = new ArrayList<>(chunks.size());
+            for (List<MgPointValue> chunk : chunks) {
+                futures.add(CompletableFuture.supplyAsync(() -> bulkInsert(collection, chunk), bulkExecutor));
+            }
+            counts = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        }
+
+        int inserted = counts.stream().mapToInt(count -> count.inserted).sum();
+        int failed = counts.stream().mapToInt(count -> count.failed).sum();
+        log.debug("Mongo bulk insert {}, chunk: {}, inserted: {}, failed: {}", collection, chunks.size(), inserted, failed);
+        if (failed > 0) {
+            throw new ServiceException("Mongo bulk insert {} failed, inserted: {}, failed: {}", collection, inserted, failed);
+        }
     }
 
     @Override
     public void afterPropertiesSet() {
+        int poolSize = Math.max(1, mongoProperty.getBulkParallelism());
+        bulkExecutor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                60,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                (r) -> {
+                    Thread thread = new Thread(r, "dc3-repository-mongo-bulk-" + bulkThreadAtomic.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
         RepositoryStrategyFactory.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_MONGO, this);
+
+        if (MongoProperty.Mode.TIME_SERIES.equals(mongoProperty.getMode())) {
+            Thread thread = new Thread(this::ensureLegacyCollections, "dc3-repository-mongo-index");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        bulkExecutor.shutdown();
     }
 
     /**
-     * Ensure device point & time index
+     * 由设备、位号、originTime 与值生成 ObjectId，时间部分为 originTime 的秒数，其余部分为内容哈希
+     * <p>
+     * createTime 在每次保存时重新设置，不参与计算，否则重新投递的消息会得到不同的 ObjectId；
+     * 同一毫秒内值相同的两个数据会得到相同的 ObjectId，只保存第一个
+     *
+     * @param pointValue PointValue
+     * @return ObjectId Hex String
+     */
+    private String objectId(PointValue pointValue) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(String.valueOf(pointValue.getDeviceId()), StandardCharsets.UTF_8)
+                .putString(pointValue.getPointId(), StandardCharsets.UTF_8)
+                .putLong(null != pointValue.getOriginTime() ? pointValue.getOriginTime().getTime() : 0)
+                .putString(String.valueOf(pointValue.getValue()), StandardCharsets.UTF_8)
+                .putString(String.valueOf(pointValue.getRawValue()), StandardCharsets.UTF_8);
+        long seconds = null != pointValue.getOriginTime() ? pointValue.getOriginTime().getTime() / 1000 : 0;
+        byte[] bytes = ByteBuffer.allocate(12).putInt((int) seconds).putLong(hasher.hash().asLong()).array();
+        return new ObjectId(bytes).toHexString();
+    }
+
+    /**
+     * 按位号与时间窗口分组，每组数据通过一个 upsert 追加到未写满的分桶中
+     * <p>
+     * 同一设备的分桶写入在本实例内串行执行；其他实例同时写入导致 upsert 失败时，
+     * 只重新计算并写入失败的部分，已写入的数据按位号与 originTime 跳过，不会重复追加。
+     *
+     * @param deviceId    Device Id
+     * @param pointValues PointValue Array
+     */
+    private void saveBuckets(String deviceId, List<? extends PointValue> pointValues) {
+        final String collection = CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX + deviceId;
+        ensureBucketCollection(collection);
+
+        Lock lock = bucketLocks.get(deviceId);
+        lock.lock();
+        try {
+            List<PointValue> remaining = new ArrayList<>(pointValues);
+            for (int times = 1; ; times++) {
+                remaining = upsertBuckets(deviceId, collection, remaining);
+                if (remaining.isEmpty()) {
+                    return;
+                }
+                if (times >= BUCKET_RETRY_TIMES) {
+                    throw new ServiceException("Mongo bucket upsert {} failed, conflict: {}", collection, remaining.size());
+                }
+                log.debug("Mongo bucket upsert {} conflict, retry: {}, size: {}", collection, times, remaining.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入一轮分桶数据
+     *
+     * @param deviceId    Device Id
+     * @param collection  Collection Name
+     * @param pointValues PointValue Array
+     * @return 因分桶编号冲突未写入的 PointValue Array
+     */
+    private List<PointValue> upsertBuckets(String deviceId, String collection, List<PointValue> pointValues) {
+        final long span = TimeUnit.SECONDS.toMillis(mongoProperty.getBucketSpan());
+        final int bucketSize = mongoProperty.getBucketSize();
+        Map<String, Map<Long, List<PointValue>>> group = new LinkedHashMap<>();
+        for (PointValue pointValue : pointValues) {
+            long time = pointValue.getOriginTime().getTime();
+            group.computeIfAbsent(pointValue.getPointId(), k -> new TreeMap<>())
+                    .computeIfAbsent(time - time % span, k -> new ArrayList<>())
+                    .add(pointValue);
+        }
+
+        Map<String, OpenBucket> openBuckets = openBuckets(collection, group);
+        Set<String> storedSamples = storedSamples(collection, group, openBuckets);
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MgPointValueBucket.class, collection);
+        List<List<PointValue>> upserts = new ArrayList<>();
+        group.forEach((pointId, windows) -> windows.forEach((start, windowValues) -> {
+            // 跳过已写入与本批次中重复的数据
+            Set<Long> times = new HashSet<>();
+            List<PointValue> values = windowValues.stream()
+                    .filter(pointValue -> {
+                        long time = pointValue.getOriginTime().getTime();
+                        return !storedSamples.contains(pointId + CommonConstant.Symbol.SEPARATOR + time) && times.add(time);
+                    })
+                    .collect(Collectors.toList());
+
+            OpenBucket open = openBuckets.get(pointId + CommonConstant.Symbol.SEPARATOR + start);
+            int seq = null != open ? open.seq : 0;
+            int count = null != open ? open.count : 0;
+            int index = 0;
+            while (index < values.size()) {
+                if (count >= bucketSize) {
+                    seq++;
+                    count = 0;
+                }
+
+                // 只有剩余容量不少于本次写入数量且不包含本次写入的数据时才会匹配，否则插入新文档并因唯一索引冲突失败
+                int size = Math.min(bucketSize - count, values.size() - index);
+                List<PointValue> upsertValues = values.subList(index, index + size);
+                Query query = new Query(Criteria.where("pointId").is(pointId).and("start").is(new Date(start)).and("seq").is(seq)
+                        .and("count").lte(bucketSize - size)
+                        .and("samples.t").nin(upsertValues.stream().map(PointValue::getOriginTime).collect(Collectors.toList())));
+                bulkOperations.upsert(query, bucketUpdate(deviceId, upsertValues));
+                upserts.add(upsertValues);
+                index += size;
+                count += size;
+            }
+        }));
+        if (upserts.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            bulkOperations.execute();
+            log.debug("Mongo bucket upsert {}, size: {}, bucket: {}", collection, pointValues.size(), upserts.size());
+            return Collections.emptyList();
+        } catch (BulkOperationException e) {
+            List<PointValue> conflicts = new ArrayList<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw new ServiceException("Mongo bucket upsert {} error: {}", collection, error.getMessage());
+                }
+                conflicts.addAll(upserts.get(error.getIndex()));
+            }
+            return conflicts;
+        }
+    }
+
+    /**
+     * 查询各位号各时间窗口最后一个分桶的编号、数量，以及窗口内的最新数据时间
      *
      * @param collection Collection Name
+     * @param group      pointId -> 时间窗口起始时间 -> PointValue Array
+     * @return pointId + 分隔符 + 起始时间 -> OpenBucket
      */
-    private void ensurePointValueIndex(String collection) {
-        // ensure point index
-        Index pointIndex = new Index();
-        pointIndex.background()
+    private Map<String, OpenBucket> openBuckets(String collection, Map<String, Map<Long, List<PointValue>>> group) {
+        List<Criteria> criteria = new ArrayList<>(group.size());
+        group.forEach((pointId, windows) -> criteria.add(Criteria.where("pointId").is(pointId)
+                .and("start").in(windows.keySet().stream().map(Date::new).collect(Collectors.toList()))));
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(new Criteria().orOperator(criteria.toArray(new Criteria[0])).and("seq").exists(true)),
+                Aggregation.sort(Sort.by(Sort.Order.asc("pointId"), Sort.Order.desc("start"), Sort.Order.desc("seq"))),
+                Aggregation.group("pointId", "start").first("seq").as("seq").first("count").as("count").max("lastTime").as("lastTime"));
+
+        Map<String, OpenBucket> openBuckets = new HashMap<>(criteria.size() * 2);
+        for (Document document : mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults()) {
+            Document id = document.get("_id", Document.class);
+            String key = id.getString("pointId") + CommonConstant.Symbol.SEPARATOR + id.getDate("start").getTime();
+            Date lastTime = document.getDate("lastTime");
+            openBuckets.put(key, new OpenBucket(((Number) document.get("seq")).intValue(), ((Number) document.get("count")).intValue(),
+                    null != lastTime ? lastTime.getTime() : Long.MIN_VALUE));
+        }
+        return openBuckets;
+    }
+
+    /**
+     * 查询已写入分桶的数据，只有时间不晚于窗口内最新数据的位号数据需要查询，通常是重试或乱序到达的数据
+     *
+     * @param collection  Collection Name
+     * @param group       pointId -> 时间窗口起始时间 -> PointValue Array
+     * @param openBuckets pointId + 分隔符 + 起始时间 -> OpenBucket
+     * @return pointId + 分隔符 + originTime 毫秒数
+     */
+    private Set<String> storedSamples(String collection, Map<String, Map<Long, List<PointValue>>> group, Map<String, OpenBucket> openBuckets) {
+        List<Criteria> criteria = new ArrayList<>();
+        Set<Date> allTimes = new HashSet<>();
+        group.forEach((pointId, windows) -> windows.forEach((start, values) -> {
+            OpenBucket open = openBuckets.get(pointId + CommonConstant.Symbol.SEPARATOR + start);
+            if (null == open) {
+                return;
+            }
+            List<Date> times = values.stream()
+                    .map(PointValue::getOriginTime)
+                    .filter(time -> time.getTime() <= open.lastTime)
+                    .collect(Collectors.toList());
+            if (!times.isEmpty()) {
+                criteria.add(Criteria.where("pointId").is(pointId).and("start").is(new Date(start)).and("samples.t").in(times));
+                allTimes.addAll(times);
+            }
+        }));
+        if (criteria.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Criteria match = new Criteria().orOperator(criteria.toArray(new Criteria[0]));
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(match),
+                Aggregation.unwind("samples"),
+                Aggregation.match(Criteria.where("samples.t").in(allTimes)),
+                Aggregation.project("pointId").and("samples.t").as("t"));
+
+        Set<String> storedSamples = new HashSet<>();
+        for (Document document : mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults()) {
+            storedSamples.add(document.getString("pointId") + CommonConstant.Symbol.SEPARATOR + document.getDate("t").getTime());
+        }
+        return storedSamples;
+    }
+
+    private Update bucketUpdate(String deviceId, List<PointValue> pointValues) {
+        Date firstTime = null;
+        Date lastTime = null;
+        Double min = null;
+        Double max = null;
+        List<MgPointValueBucket.Sample> samples = new ArrayList<>(pointValues.size());
+        for (PointValue pointValue : pointValues) {
+            samples.add(new MgPointValueBucket.Sample(pointValue));
+
+            Date time = pointValue.getOriginTime();
+            firstTime = null == firstTime || time.before(firstTime) ? time : firstTime;
+            lastTime = null == lastTime || time.after(lastTime) ? time : lastTime;
+            if (NumberUtil.isNumber(pointValue.getValue())) {
+                double value = Double.parseDouble(pointValue.getValue());
+                min = null == min ? value : Math.min(min, value);
+                max = null == max ? value : Math.max(max, value);
+            }
+        }
+
+        Update update = new Update()
+                .setOnInsert("deviceId", deviceId)
+                .push("samples").each(samples.toArray())
+                .inc("count", samples.size())
+                .min("firstTime", firstTime)
+                .max("lastTime", lastTime);
+        if (null != min) {
+            update.min("min", min).max("max", max);
+        }
+        return update;
+    }
+
+    /**
+     * Ensure device bucket index, only once for each collection
+     *
+     * @param collection Collection Name
+     */
+    private void ensureBucketCollection(String collection) {
+        if (!indexedCollections.add(collection)) {
+            return;
+        }
+
+        try {
+            Index index = new Index();
+            index.background()
+                    .on("pointId", Sort.Direction.ASC)
+                    .on("start", Sort.Direction.DESC)
+                    .named("IX_point_id_start");
+            mongoTemplate.indexOps(collection).ensureIndex(index);
+
+            // ensure unique bucket index, buckets written before seq was added are not covered
+            Index seqIndex = new Index();
+            seqIndex.background()
+                    .on("pointId", Sort.Direction.ASC)
+                    .on("start", Sort.Direction.DESC)
+                    .on("seq", Sort.Direction.DESC)
+                    .unique()
+                    .partial(PartialIndexFilter.of(Criteria.where("seq").exists(true)))
+                    .named("IX_point_id_start_seq");
+            mongoTemplate.indexOps(collection).ensureIndex(seqIndex);
+
+            // ensure last time index, used by retention
+            Index lastTimeIndex = new Index();
+            lastTimeIndex.background()
+                    .on("lastTime", Sort.Direction.ASC)
+                    .named("IX_last_time");
+            mongoTemplate.indexOps(collection).ensureIndex(lastTimeIndex);
+        } catch (Exception e) {
+            indexedCollections.remove(collection);
+            throw e;
+        }
+    }
+
+    /**
+     * 无序批量写入，主键冲突说明数据已经写入过，计为写入成功
+     *
+     * @param collection  Collection Name
+     * @param pointValues MgPointValue Array
+     * @return BulkCount
+     */
+    private BulkCount bulkInsert(String collection, List<MgPointValue> pointValues) {
+        try {
+            int inserted = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MgPointValue.class, collection)
+                    .insert(pointValues)
+                    .execute()
+                    .getInsertedCount();
+            return new BulkCount(inserted, 0);
+        } catch (BulkOperationException e) {
+            List<BulkWriteError> errors = e.getErrors();
+            int duplicated = (int) errors.stream().filter(error -> error.getCode() == DUPLICATE_KEY).count();
+            int failed = errors.size() - duplicated;
+            if (failed > 0) {
+                log.error("Mongo bulk insert {} error: {}", collection, errors.get(0).getMessage());
+            }
+            return new BulkCount(e.getResult().getInsertedCount() + duplicated, failed);
+        }
+    }
+
+    /**
+     * Ensure device collection & index, only once for each collection
+     *
+     * @param collection Collection Name
+     */
+    private void ensurePointValueCollection(String collection) {
+        if (!indexedCollections.add(collection)) {
+            return;
+        }
+
+        try {
+            if (MongoProperty.Mode.TIME_SERIES.equals(mongoProperty.getMode())) {
+                if (!mongoTemplate.collectionExists(collection)) {
+                    createTimeSeriesCollection(collection);
+                    return;
+                }
+                if (isTimeSeriesCollection(collection)) {
+                    ensurePointOriginTimeIndex(collection);
+                    return;
+                }
+            }
+
+            // ensure time & point & id index, used by history queries and cursor pagination, which breaks ties of the same time by pointId and _id
+            String timeField = mongoProperty.getTimeField();
+            String timeIndexName = "createTime".equals(timeField) ? "create_time" : "origin_time";
+            Index timeIdIndex = new Index();
+            timeIdIndex.background()
+                    .on(timeField, Sort.Direction.DESC)
+                    .on("pointId", Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC)
+                    .named("IX_" + timeIndexName + "_point_id_id");
+            mongoTemplate.indexOps(collection).ensureIndex(timeIdIndex);
+
+            // ensure point & time & id index, also used by latest value of each point
+            Index pointTimeIdIndex = new Index();
+            pointTimeIdIndex.background()
+                    .on("pointId", Sort.Direction.ASC)
+                    .on(timeField, Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC)
+                    .named("IX_point_id_" + timeIndexName + "_id");
+            mongoTemplate.indexOps(collection).ensureIndex(pointTimeIdIndex);
+
+            // 按 originTime 查询的存储方式下，保留期限仍按 createTime 删除
+            if (!"createTime".equals(timeField)) {
+                Index createTimeIndex = new Index();
+                createTimeIndex.background()
+                        .on("createTime", Sort.Direction.DESC)
+                        .named("IX_create_time");
+                mongoTemplate.indexOps(collection).ensureIndex(createTimeIndex);
+            }
+        } catch (Exception e) {
+            indexedCollections.remove(collection);
+            throw e;
+        }
+    }
+
+    /**
+     * 创建时序集合，并创建 pointId 与 originTime 的组合索引
+     *
+     * @param collection Collection Name
+     */
+    private void createTimeSeriesCollection(String collection) {
+        TimeSeriesOptions timeSeriesOptions = new TimeSeriesOptions("originTime")
+                .metaField("pointId")
+                .granularity(mongoProperty.getGranularity());
+        CreateCollectionOptions options = new CreateCollectionOptions().timeSeriesOptions(timeSeriesOptions);
+        if (mongoProperty.getExpireAfter() > 0) {
+            options.expireAfter(mongoProperty.getExpireAfter(), TimeUnit.SECONDS);
+        }
+
+        try {
+            mongoTemplate.getDb().createCollection(collection, options);
+            log.info("Create time series collection {}, granularity: {}, expire after: {}s", collection, mongoProperty.getGranularity(), mongoProperty.getExpireAfter());
+        } catch (MongoCommandException e) {
+            // 其他实例已创建该集合
+            if (e.getErrorCode() != NAMESPACE_EXISTS) {
+                throw e;
+            }
+        }
+
+        ensurePointOriginTimeIndex(collection);
+    }
+
+    /**
+     * 时序集合中 pointId 与 originTime 的组合索引，用于按 originTime 查询各位号的最新数据与历史数据，以及整个设备的游标翻页
+     *
+     * @param collection Collection Name
+     */
+    private void ensurePointOriginTimeIndex(String collection) {
+        Index index = new Index();
+        index.background()
+                .on("pointId", Sort.Direction.ASC)
+                .on("originTime", Sort.Direction.DESC)
+                .named("IX_point_id_origin_time");
+        mongoTemplate.indexOps(collection).ensureIndex(index);
+
+        // ensure time & point index, used by cursor pagination of the whole device
+        Index timePointIndex = new Index();
+        timePointIndex.background()
+                .on("originTime", Sort.Direction.DESC)
                 .on("pointId", Sort.Direction.DESC)
-                .named("IX_point_id");
-        mongoTemplate.indexOps(collection).ensureIndex(pointIndex);
+                .named("IX_origin_time_point_id");
+        mongoTemplate.indexOps(collection).ensureIndex(timePointIndex);
+    }
+
+    private boolean isTimeSeriesCollection(String collection) {
+        Document document = mongoTemplate.getDb().listCollections().filter(new Document("name", collection)).first();
+        return null != document && "timeseries".equals(document.getString("type"));
+    }
+
+    /**
+     * 存储方式为 TIME_SERIES 时检查已有的普通集合，为其创建 originTime 索引，避免查询时全表扫描与内存排序
+     */
+    private void ensureLegacyCollections() {
+        try {
+            for (String collection : mongoTemplate.getCollectionNames()) {
+                if (collection.startsWith(CommonConstant.Storage.POINT_VALUE_PREFIX)
+                        && !collection.startsWith(CommonConstant.Storage.POINT_VALUE_BUCKET_PREFIX)
+                        && !collection.startsWith(CommonConstant.Storage.POINT_VALUE_ROLLUP_PREFIX)) {
+                    ensurePointValueCollection(collection);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Ensure legacy point value collection index error: {}", e.getMessage(), e);
+        }
+    }
+
+    private static class BulkCount {
+        private final int inserted;
+        private final int failed;
+
+        BulkCount(int inserted, int failed) {
+            this.inserted = inserted;
+            this.failed = failed;
+        }
+    }
 
-        // ensure time index
-        Index timeIndex = new Index();
-        timeIndex.background()
-                .on("createTime", Sort.Direction.DESC)
-                .named("IX_create_time");
-        mongoTemplate.indexOps(collection).ensureIndex(timeIndex);
+    private static class OpenBucket {
+        private final int seq;
+        private final int count;
+        private final long lastTime;
+
+        OpenBucket(int seq, int count, long lastTime) {
+            this.seq = seq;
+            this.count = count;
+            this.lastTime = lastTime;
+        }
     }
 
-}
\ No newline at end of file
+}
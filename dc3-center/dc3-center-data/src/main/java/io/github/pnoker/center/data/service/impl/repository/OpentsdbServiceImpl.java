@@ -17,17 +17,24 @@
 package io.github.pnoker.center.data.service.impl.repository;
 
 import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import io.github.pnoker.center.data.service.RepositoryService;
 import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.bean.point.PointValue;
-import io.github.pnoker.common.bean.point.TsPointValue;
 import io.github.pnoker.common.constant.CommonConstant;
-import io.github.pnoker.common.utils.JsonUtil;
-import com.google.common.collect.Lists;
+import io.github.pnoker.common.exception.ServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
+import okio.BufferedSink;
 import org.apache.http.entity.ContentType;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -35,27 +42,53 @@ import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
+ * 位号数据写入 OpenTSDB
+ * <p>
+ * 每个位号数据写入 value、rawValue 两个数据点，请求体在发送时直接序列化为 JSON 流，不生成中间字符串；
+ * 非数值数据中布尔值写为 1/0，其余跳过，没有数据点的批次不发送。
+ * <p>
+ * 一次写入的数据点按 batch-size 拆分为多个请求，由最多 max-in-flight 个线程并行发送，全部请求完成后返回。
+ * 网络错误或服务端 5xx 时抛出异常，由 opentsdb 写入管道按失败处理策略重试或暂存，此处不再重试，避免两层重试叠加；
+ * 4xx 说明数据本身有误，重试无意义，记录错误日志并计入 dc3.opentsdb.rejected。
+ *
  * @author pnoker
  */
 @Slf4j
 @Service
 @ConditionalOnProperty(name = "data.point.sava.opentsdb.enable", havingValue = "true")
-public class OpentsdbServiceImpl implements RepositoryService, InitializingBean {
+public class OpentsdbServiceImpl implements RepositoryService, InitializingBean, DisposableBean {
+
+    private static final MediaType JSON = MediaType.parse(ContentType.APPLICATION_JSON.toString());
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
     @Value("${data.point.sava.opentsdb.host}")
     private String host;
     @Value("${data.point.sava.opentsdb.port}")
     private Integer port;
+    @Value("${data.point.sava.opentsdb.batch-size:500}")
+    private Integer batchSize;
+    @Value("${data.point.sava.opentsdb.max-in-flight:8}")
+    private Integer maxInFlight;
 
     @Resource
     private OkHttpClient okHttpClient;
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger sendThreadAtomic = new AtomicInteger(1);
+    private String putUrl;
+    private ThreadPoolExecutor sendExecutor;
+    private Counter rejected;
 
     @Override
     public void savePointValue(PointValue pointValue) {
@@ -72,63 +105,164 @@ public class OpentsdbServiceImpl implements RepositoryService, InitializingBean
             return;
         }
 
-        List<TsPointValue> tsPointValues = pointValues.stream()
-                .filter(pointValue -> StrUtil.isNotEmpty(pointValue.getPointId()))
-                .map(pointValue -> convertPointValues(CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId, pointValue))
-                .flatMap(Collection::stream)
-                .collect(Collectors.toList());
+        final String metric = CommonConstant.Storage.POINT_VALUE_PREFIX + deviceId;
+        List<DataPoint> dataPoints = new ArrayList<>(pointValues.size() * 2);
+        for (PointValue pointValue : pointValues) {
+            if (StrUtil.isEmpty(pointValue.getPointId()) || null == pointValue.getOriginTime()) {
+                continue;
+            }
+            long timestamp = pointValue.getOriginTime().getTime();
+            addDataPoint(dataPoints, pointValue.getPointId(), timestamp, "value", pointValue.getValue());
+            addDataPoint(dataPoints, pointValue.getPointId(), timestamp, "rawValue", pointValue.getRawValue());
+        }
+        if (dataPoints.isEmpty()) {
+            return;
+        }
 
-        List<List<TsPointValue>> partition = Lists.partition(tsPointValues, 100);
-        partition.forEach(this::putPointValues);
+        List<CompletableFuture<Void>> futures = Lists.partition(dataPoints, batchSize).stream()
+                .map(partition -> CompletableFuture.runAsync(() -> putDataPoints(metric, partition), sendExecutor))
+                .collect(Collectors.toList());
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
     }
 
     @Override
     public void afterPropertiesSet() {
+        putUrl = String.format("http://%s:%s/api/put?summary", host, port);
+        sendExecutor = new ThreadPoolExecutor(
+                maxInFlight,
+                maxInFlight,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> {
+                    Thread thread = new Thread(r, "dc3-repository-opentsdb-send-" + sendThreadAtomic.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        rejected = Counter.builder("dc3.opentsdb.rejected").description("Data points rejected by opentsdb").register(meterRegistry);
         RepositoryStrategyFactory.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_OPENTSDB, this);
     }
 
-    private List<TsPointValue> convertPointValues(String metric, PointValue pointValue) {
-        String point = pointValue.getPointId();
-        String value = pointValue.getValue();
-        long timestamp = pointValue.getOriginTime().getTime();
-
-        List<TsPointValue> tsPointValues = new ArrayList<>(2);
-
-        TsPointValue tsValue = new TsPointValue(metric, value);
-        tsValue.setTimestamp(timestamp)
-                .addTag("point", point)
-                .addTag("valueType", "value");
-        tsPointValues.add(tsValue);
-
-        TsPointValue tsRawValue = new TsPointValue(metric, value);
-        tsRawValue.setTimestamp(timestamp)
-                .addTag("point", point)
-                .addTag("valueType", "rawValue");
-        tsPointValues.add(tsRawValue);
-
-        return tsPointValues;
+    @Override
+    public void destroy() {
+        sendExecutor.shutdown();
     }
 
-    private void putPointValues(List<TsPointValue> tsPointValues) {
-        String putUrl = String.format("http://%s:%s/api/put?details", host, port);
-        RequestBody requestBody = RequestBody.create(JsonUtil.toJsonString(tsPointValues), MediaType.parse(ContentType.APPLICATION_JSON.toString()));
+    private void putDataPoints(String metric, List<DataPoint> dataPoints) {
         Request request = new Request.Builder()
                 .url(putUrl)
-                .post(requestBody)
+                .post(new DataPointBody(metric, dataPoints))
                 .build();
 
-        okHttpClient.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                log.error("Send pointValue to opentsdb error: {}", e.getMessage(), e);
+        try (Response response = okHttpClient.newCall(request).execute()) {
+            if (response.isSuccessful()) {
+                return;
             }
 
-            @Override
-            public void onResponse(@NotNull Call call, @NotNull Response response) {
-                if (null != response.body()) {
-                    log.debug("Send pointValue to opentsdb, Response: {}", response.message());
+            ResponseBody body = response.body();
+            String content = null != body ? body.string() : response.message();
+            String error = response.code() + ", " + content;
+            if (response.code() >= 500) {
+                throw new ServiceException("Send point values to opentsdb error: {}", error);
+            }
+
+            // 数据本身有误，重试无意义
+            int failed = failedCount(content, dataPoints.size());
+            rejected.increment(failed);
+            log.error("Opentsdb rejected {} of {} data points, metric: {}, {}", failed, dataPoints.size(), metric, error);
+        } catch (IOException e) {
+            throw new ServiceException("Send point values to opentsdb error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 summary 响应中读取失败的数据点数量，无法读取时视为全部失败
+     */
+    private int failedCount(String content, int size) {
+        try {
+            JsonNode failed = OBJECT_MAPPER.readTree(content).get("failed");
+            return null != failed && failed.isInt() ? failed.asInt() : size;
+        } catch (Exception e) {
+            return size;
+        }
+    }
+
+    private void addDataPoint(List<DataPoint> dataPoints, String point, long timestamp, String valueType, String value) {
+        BigDecimal number = number(value);
+        if (null != number) {
+            dataPoints.add(new DataPoint(point, timestamp, valueType, number));
+        }
+    }
+
+    private BigDecimal number(String value) {
+        if (null == value) {
+            return null;
+        }
+        if (Boolean.TRUE.toString().equals(value)) {
+            return BigDecimal.ONE;
+        }
+        if (Boolean.FALSE.toString().equals(value)) {
+            return BigDecimal.ZERO;
+        }
+        try {
+            return new BigDecimal(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class DataPoint {
+        private final String point;
+        private final long timestamp;
+        private final String valueType;
+        private final BigDecimal value;
+
+        DataPoint(String point, long timestamp, String valueType, BigDecimal value) {
+            this.point = point;
+            this.timestamp = timestamp;
+            this.valueType = valueType;
+            this.value = value;
+        }
+    }
+
+    /**
+     * 发送时将数据点直接序列化到请求流中
+     */
+    private static class DataPointBody extends RequestBody {
+        private final String metric;
+        private final List<DataPoint> dataPoints;
+
+        DataPointBody(String metric, List<DataPoint> dataPoints) {
+            this.metric = metric;
+            this.dataPoints = dataPoints;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(sink.outputStream())) {
+                generator.writeStartArray();
+                for (DataPoint dataPoint : dataPoints) {
+                    generator.writeStartObject();
+                    generator.writeStringField("metric", metric);
+                    generator.writeNumberField("timestamp", dataPoint.timestamp);
+                    generator.writeNumberField("value", dataPoint.value);
+                    generator.writeObjectFieldStart("tags");
+                    generator.writeStringField("point", dataPoint.point);
+                    generator.writeStringField("valueType", dataPoint.valueType);
+                    generator.writeEndObject();
+                    generator.writeEndObject();
                 }
+                generator.writeEndArray();
             }
-        });
+        }
     }
 }
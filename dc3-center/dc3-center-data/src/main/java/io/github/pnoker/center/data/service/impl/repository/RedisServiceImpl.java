@@ -22,23 +22,35 @@ import io.github.pnoker.center.data.strategy.RepositoryStrategyFactory;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.constant.CacheConstant;
 import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.utils.PointValueUtil;
 import io.github.pnoker.common.utils.RedisUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * 位号实时数据缓存，每个设备一个 Hash，Key 为 REAL_TIME_VALUE_KEY_PREFIX + deviceId，字段为 pointId，
+ * 值为 PointValueUtil.encodeValue 编码后的字节；一个批次的数据通过 Pipeline 一次写入。
+ * <p>
+ * data.point.sava.redis.expire 大于 0 时，设备超过该时间（秒）没有新数据则实时数据失效，已删除设备的数据不会永久保留。
+ *
  * @author pnoker
  */
 @Slf4j
 @Service
 public class RedisServiceImpl implements RepositoryService, InitializingBean {
 
+    @Value("${data.point.sava.redis.expire:0}")
+    private Long expire;
+
     @Resource
     private RedisUtil redisUtil;
 
@@ -48,8 +60,7 @@ public class RedisServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String prefix = CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + pointValue.getDeviceId() + CommonConstant.Symbol.DOT;
-        redisUtil.setKey(prefix + pointValue.getPointId(), pointValue);
+        savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
     }
 
     @Override
@@ -58,15 +69,20 @@ public class RedisServiceImpl implements RepositoryService, InitializingBean {
             return;
         }
 
-        final String prefix = CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + deviceId + CommonConstant.Symbol.DOT;
-        Map<String, Object> collect = pointValues.stream()
+        // 同一位号保留批次中最后一个数据
+        Map<String, byte[]> fieldMap = new HashMap<>(pointValues.size() * 2);
+        pointValues.stream()
                 .filter(pointValue -> StrUtil.isNotEmpty(pointValue.getPointId()))
-                .collect(Collectors.toMap(pointValue -> prefix + pointValue.getPointId(), pointValue -> pointValue));
-        redisUtil.setKey(collect);
+                .forEach(pointValue -> fieldMap.put(pointValue.getPointId(), PointValueUtil.encodeValue(pointValue)));
+        if (fieldMap.isEmpty()) {
+            return;
+        }
+
+        redisUtil.setHash(Collections.singletonMap(CacheConstant.Prefix.REAL_TIME_VALUE_KEY_PREFIX + deviceId, fieldMap), expire, TimeUnit.SECONDS);
     }
 
     @Override
     public void afterPropertiesSet() {
         RepositoryStrategyFactory.put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS, this);
     }
-}
\ No newline at end of file
+}
@@ -16,8 +16,7 @@
 
 package io.github.pnoker.center.data.service.job;
 
-import io.github.pnoker.center.data.service.PointValueService;
-import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.center.data.service.buffer.PointValueBuffer;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
 import org.quartz.JobExecutionContext;
@@ -27,13 +26,12 @@ import org.springframework.scheduling.quartz.QuartzJobBean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * 统计位号数据接收速率，数据的批量保存由 PointValueFlusher 负责
+ *
  * @author pnoker
  */
 @Slf4j
@@ -46,32 +44,19 @@ public class PointValueScheduleJob extends QuartzJobBean {
     private Integer interval;
 
     @Resource
-    private PointValueService pointValueService;
-    @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private PointValueBuffer pointValueBuffer;
 
-    public static List<PointValue> pointValues = new ArrayList<>();
-    public static ReentrantReadWriteLock valueLock = new ReentrantReadWriteLock();
-    public static AtomicLong valueCount = new AtomicLong(0), valueSpeed = new AtomicLong(0);
+    public static LongAdder valueCount = new LongAdder();
+    public static AtomicLong valueSpeed = new AtomicLong(0);
 
     @Override
     protected void executeInternal(@NotNull JobExecutionContext jobExecutionContext) throws JobExecutionException {
         // Statistical point value receive rate
-        long speed = valueCount.getAndSet(0);
+        long speed = valueCount.sumThenReset();
         valueSpeed.set(speed);
         speed /= interval;
         if (speed >= batchSpeed) {
-            log.debug("Point value receiver speed: {} /s, value size: {}, interval: {}", speed, pointValues.size(), interval);
+            log.debug("Point value receiver speed: {} /s, value size: {}, interval: {}", speed, pointValueBuffer.size(), interval);
         }
-
-        // Save point value array to Redis & MongoDB
-        threadPoolExecutor.execute(() -> {
-            valueLock.writeLock().lock();
-            if (pointValues.size() > 0) {
-                pointValueService.savePointValues(pointValues);
-                pointValues.clear();
-            }
-            valueLock.writeLock().unlock();
-        });
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.pipeline;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import io.github.pnoker.common.exception.ServiceException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Elasticsearch 批量写入器
+ * <p>
+ * 操作先进入缓冲区，数量达到 maxOperations、估算字节数达到 maxBytes、调用 flush 或距上次发送超过 flushInterval 毫秒时，
+ * 作为一个 Bulk 请求异步发送；同时发送中的请求最多 maxConcurrentRequests 个，达到上限时 add 等待。
+ * <p>
+ * 每个操作对应一个 Future：请求失败或操作被拒绝（429）时，在 retryInterval 毫秒后（每次翻倍）重新进入缓冲区，
+ * 最多重试 retryTimes 次，仍然失败或操作出现其他错误时 Future 异常完成。
+ * <p>
+ * 定时发送与重试在写入器自己的线程中执行，Elasticsearch 响应较慢、等待发送许可时不会占用公共的定时线程池。
+ *
+ * @author pnoker
+ */
+@Slf4j
+public class ElasticsearchBulkIngester {
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final ElasticsearchAsyncClient client;
+    private final int maxOperations;
+    private final long maxBytes;
+    private final long flushInterval;
+    private final int retryTimes;
+    private final long retryInterval;
+    private final Semaphore requests;
+    private final int maxConcurrentRequests;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> flushTask;
+
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private List<Entry> entries = new ArrayList<>();
+    private long bytes = 0;
+    private long lastFlushTime = System.currentTimeMillis();
+
+    public ElasticsearchBulkIngester(ElasticsearchAsyncClient client, int maxOperations, long maxBytes, long flushInterval,
+                                     int maxConcurrentRequests, int retryTimes, long retryInterval) {
+        this.client = client;
+        this.maxOperations = maxOperations;
+        this.maxBytes = maxBytes;
+        this.flushInterval = flushInterval;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.retryTimes = retryTimes;
+        this.retryInterval = retryInterval;
+        this.requests = new Semaphore(maxConcurrentRequests);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dc3-repository-elasticsearch-bulk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushTask = scheduler.scheduleWithFixedDelay(this::flushIfExpired, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 添加一个操作
+     *
+     * @param operation BulkOperation
+     * @param size      操作的估算字节数
+     * @return 操作写入成功时完成的 Future
+     */
+    public CompletableFuture<Void> add(BulkOperation operation, long size) {
+        Entry entry = new Entry(operation, size);
+        List<Entry> batch;
+        synchronized (this) {
+            batch = append(entry);
+        }
+        if (null != batch) {
+            send(batch);
+        }
+        return entry.future;
+    }
+
+    /**
+     * 发送缓冲区中的全部操作
+     */
+    public void flush() {
+        List<Entry> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (null != batch) {
+            send(batch);
+        }
+    }
+
+    /**
+     * 发送剩余操作并等待发送中的请求完成
+     *
+     * @param timeout 最多等待毫秒数
+     */
+    public void close(long timeout) {
+        flushTask.cancel(false);
+        flush();
+        try {
+            if (requests.tryAcquire(maxConcurrentRequests, timeout, TimeUnit.MILLISECONDS)) {
+                requests.release(maxConcurrentRequests);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdown();
+        log.info("Elasticsearch bulk ingester closed, succeeded: {}, failed: {}", succeeded.sum(), failed.sum());
+    }
+
+    private void flushIfExpired() {
+        try {
+            List<Entry> batch = null;
+            synchronized (this) {
+                if (!entries.isEmpty() && System.currentTimeMillis() - lastFlushTime >= flushInterval) {
+                    batch = take();
+                }
+            }
+            if (null != batch) {
+                send(batch);
+            }
+        } catch (Exception e) {
+            log.error("Flush elasticsearch bulk error: {}", e.getMessage(), e);
+        }
+    }
+
+    private List<Entry> append(Entry entry) {
+        entries.add(entry);
+        bytes += entry.size;
+        if (entries.size() >= maxOperations || bytes >= maxBytes) {
+            return take();
+        }
+        return null;
+    }
+
+    private List<Entry> take() {
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        List<Entry> batch = entries;
+        entries = new ArrayList<>(Math.min(batch.size(), maxOperations));
+        bytes = 0;
+        lastFlushTime = System.currentTimeMillis();
+        return batch;
+    }
+
+    private void send(List<Entry> batch) {
+        List<BulkOperation> operations = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            operations.add(entry.operation);
+        }
+
+        requests.acquireUninterruptibly();
+        try {
+            client.bulk(BulkRequest.of(builder -> builder.operations(operations))).whenComplete((response, e) -> {
+                requests.release();
+                if (null != e) {
+                    log.error("Send point values to elasticsearch error, size: {}, {}", batch.size(), e.getMessage());
+                    retry(batch, e.getMessage());
+                    return;
+                }
+
+                List<BulkResponseItem> items = response.items();
+                List<Entry> rejected = new ArrayList<>();
+                int errors = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    Entry entry = batch.get(i);
+                    BulkResponseItem item = items.get(i);
+                    if (null == item.error()) {
+                        succeeded.increment();
+                        entry.future.complete(null);
+                    } else if (item.status() == TOO_MANY_REQUESTS) {
+                        rejected.add(entry);
+                    } else {
+                        if (errors == 0) {
+                            log.error("Send point values to elasticsearch error: {}", item.error().reason());
+                        }
+                        errors++;
+                        failed.increment();
+                        entry.future.completeExceptionally(new ServiceException("Send point values to elasticsearch error: {}", item.error().reason()));
+                    }
+                }
+                if (!rejected.isEmpty()) {
+                    retry(rejected, "rejected");
+                }
+                log.debug("Send point values to elasticsearch, size: {}, errors: {}, rejected: {}, took: {}ms", batch.size(), errors, rejected.size(), response.took());
+            });
+        } catch (Exception e) {
+            requests.release();
+            log.error("Send point values to elasticsearch error, size: {}, {}", batch.size(), e.getMessage());
+            retry(batch, e.getMessage());
+        }
+    }
+
+    /**
+     * 延迟后将操作重新放入缓冲区，超过重试次数的操作直接失败
+     */
+    private void retry(List<Entry> batch, String error) {
+        List<Entry> retries = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (entry.times < retryTimes) {
+                entry.times++;
+                retries.add(entry);
+            } else {
+                failed.increment();
+                entry.future.completeExceptionally(new ServiceException("Send point values to elasticsearch error: {}", error));
+            }
+        }
+        if (retries.isEmpty()) {
+            return;
+        }
+
+        int times = retries.stream().mapToInt(entry -> entry.times).max().orElse(1);
+        long delay = retryInterval << (times - 1);
+        log.warn("Send point values to elasticsearch error, retry {} operations after {}ms: {}", retries.size(), delay, error);
+        try {
+            scheduler.schedule(() -> requeue(retries), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            for (Entry entry : retries) {
+                failed.increment();
+                entry.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void requeue(List<Entry> retries) {
+        for (Entry entry : retries) {
+            List<Entry> batch;
+            synchronized (this) {
+                batch = append(entry);
+            }
+            if (null != batch) {
+                send(batch);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final BulkOperation operation;
+        private final long size;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private int times = 0;
+
+        Entry(BulkOperation operation, long size) {
+            this.operation = operation;
+            this.size = size;
+        }
+    }
+}
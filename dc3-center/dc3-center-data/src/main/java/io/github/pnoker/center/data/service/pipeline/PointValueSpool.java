@@ -0,0 +1,366 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.pipeline;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.utils.PointValueUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 位号数据本地暂存，Repository 不可用时保存写入失败的批次，恢复后按顺序重放
+ * <p>
+ * 暂存由多个固定大小的 Segment 文件组成，文件通过内存映射只追加写入。每条记录为：
+ * 长度（int）、CRC32（int）、PointValueUtil 编码后的数据；长度为 0 或超出 Segment 表示 Segment 结束，
+ * 长度为负数表示该记录已重放完成，重启后会被跳过。
+ * <p>
+ * Segment 数量达到上限时删除最早的 Segment，保证磁盘占用有上限。
+ * <p>
+ * 写入与重放标记只修改映射内存，由 force 统一刷盘，进程崩溃时数据仍在系统页缓存中，
+ * 掉电时最多丢失最近一次 force 之后的记录；删除 Segment 时释放其内存映射。
+ *
+ * @author pnoker
+ */
+@Slf4j
+public class PointValueSpool {
+
+    private static final String SUFFIX = ".spool";
+    private static final int HEADER = 8;
+
+    private final String name;
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long sequence = 0;
+    private long dropped = 0;
+
+    public PointValueSpool(String name, File directory, int segmentSize, long maxSize) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Create spool directory failed: " + directory.getAbsolutePath());
+        }
+        recover();
+    }
+
+    /**
+     * 追加一批位号数据
+     *
+     * @param pointValues PointValue Array
+     * @throws IOException 数据超过 Segment 大小或文件写入失败
+     */
+    public synchronized void append(List<PointValue> pointValues) throws IOException {
+        byte[] payload = PointValueUtil.encode(pointValues);
+        if (HEADER + payload.length > segmentSize) {
+            throw new IOException("Point values size " + payload.length + " exceeds spool segment size " + segmentSize);
+        }
+
+        Segment segment = segments.peekLast();
+        if (null == segment || segment.sealed || segment.writePosition + HEADER + payload.length > segmentSize) {
+            segment = roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int position = segment.writePosition;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + HEADER);
+        buffer.put(payload);
+        segment.buffer.putInt(position + 4, (int) crc.getValue());
+        // 最后写入长度，长度不为 0 时记录才有效
+        segment.buffer.putInt(position, payload.length);
+        segment.dirty = true;
+
+        segment.writePosition = position + HEADER + payload.length;
+        segment.pending++;
+    }
+
+    /**
+     * 读取最早一条未重放的记录，没有时返回 null
+     *
+     * @return Record
+     */
+    public synchronized Record next() {
+        Segment segment;
+        while (null != (segment = segments.peekFirst())) {
+            int position = segment.readPosition;
+            int capacity = segment.buffer.capacity();
+            int length = position + HEADER <= capacity ? segment.buffer.getInt(position) : 0;
+            if (length == 0) {
+                if (!segment.sealed) {
+                    return null;
+                }
+                delete(segments.pollFirst());
+                continue;
+            }
+            if (position + HEADER + Math.abs((long) length) > capacity) {
+                corrupted(segment, position);
+                continue;
+            }
+            if (length < 0) {
+                segment.readPosition = position + HEADER - length;
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position + HEADER);
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != segment.buffer.getInt(position + 4)) {
+                corrupted(segment, position);
+                continue;
+            }
+            return new Record(segment, position, length, PointValueUtil.decode(payload));
+        }
+        return null;
+    }
+
+    /**
+     * 标记记录已重放完成
+     *
+     * @param record Record
+     */
+    public synchronized void commit(Record record) {
+        Segment segment = record.segment;
+        if (!segments.contains(segment)) {
+            return;
+        }
+
+        segment.buffer.putInt(record.position, -record.length);
+        segment.dirty = true;
+        segment.readPosition = record.position + HEADER + record.length;
+        segment.pending--;
+        if (segment.sealed && segment.pending <= 0) {
+            segments.remove(segment);
+            delete(segment);
+        }
+    }
+
+    /**
+     * 将有修改的 Segment 刷入磁盘
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            if (segment.dirty) {
+                segment.dirty = false;
+                segment.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * 刷盘并释放全部 Segment 的内存映射，之后不能再使用
+     */
+    public synchronized void close() {
+        force();
+        for (Segment segment : segments) {
+            unmap(segment.buffer);
+        }
+        segments.clear();
+    }
+
+    /**
+     * 未重放的记录数量
+     *
+     * @return long
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.pending;
+        }
+        return size;
+    }
+
+    /**
+     * 因磁盘占用达到上限而丢弃的记录数量
+     *
+     * @return long
+     */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * 重启后加载已有的 Segment，新数据总是写入新的 Segment
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, file) -> file.endsWith(SUFFIX));
+        if (null == files) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            sequence = Math.max(sequence, Long.parseLong(file.getName().replace(SUFFIX, "")) + 1);
+            Segment segment = new Segment(file, (int) file.length());
+            segment.sealed = true;
+            int position = 0;
+            boolean read = false;
+            while (position + HEADER <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(position);
+                // 长度超出 Segment 时为写入中断的记录，视为 Segment 结束
+                if (length == 0 || position + HEADER + Math.abs((long) length) > segment.buffer.capacity()) {
+                    break;
+                }
+                if (length > 0) {
+                    if (!read) {
+                        segment.readPosition = position;
+                        read = true;
+                    }
+                    segment.pending++;
+                }
+                position += HEADER + Math.abs(length);
+            }
+
+            if (segment.pending > 0) {
+                segments.addLast(segment);
+            } else {
+                delete(segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Spool({}) recovered {} point value batches to replay", name, size());
+        }
+    }
+
+    private Segment roll() throws IOException {
+        Segment last = segments.peekLast();
+        if (null != last) {
+            last.sealed = true;
+        }
+
+        while (segments.size() >= maxSegments) {
+            Segment oldest = segments.pollFirst();
+            dropped += oldest.pending;
+            log.warn("Spool({}) is full, drop segment {} with {} point value batches", name, oldest.file.getName(), oldest.pending);
+            delete(oldest);
+        }
+
+        File file = new File(directory, String.format("%020d%s", sequence++, SUFFIX));
+        Segment segment = new Segment(file, segmentSize);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * Segment 损坏时丢弃其余记录，正在写入的 Segment 损坏时后续数据写入新的 Segment
+     */
+    private void corrupted(Segment segment, int position) {
+        log.error("Spool({}) segment {} is corrupted at {}, skip the rest of segment", name, segment.file.getName(), position);
+        dropped += segment.pending;
+        segment.sealed = true;
+        segments.remove(segment);
+        delete(segment);
+    }
+
+    private void delete(Segment segment) {
+        unmap(segment.buffer);
+        if (!segment.file.delete()) {
+            log.warn("Spool({}) delete segment {} failed", name, segment.file.getName());
+        }
+    }
+
+    /**
+     * 释放内存映射，Java 9 及以上通过 Unsafe.invokeCleaner，Java 8 通过 DirectBuffer.cleaner
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+            }
+
+            if (null != invokeCleaner) {
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                invokeCleaner.invoke(field.get(null), buffer);
+                return;
+            }
+
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (null != cleaner) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.warn("Unmap spool segment error: {}", e.getMessage());
+        }
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition = 0;
+        private int writePosition = 0;
+        private int pending = 0;
+        private boolean sealed = false;
+        private boolean dirty = false;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                if (randomAccessFile.length() < size) {
+                    randomAccessFile.setLength(size);
+                }
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+    }
+
+    public static class Record {
+        private final Segment segment;
+        private final int position;
+        private final int length;
+        private final List<PointValue> pointValues;
+
+        Record(Segment segment, int position, int length, List<PointValue> pointValues) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.pointValues = pointValues;
+        }
+
+        public List<PointValue> getPointValues() {
+            return pointValues;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.pipeline;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import io.github.pnoker.center.data.bean.RepositoryProperty;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单个 Repository 的写入管道
+ * <p>
+ * 每个 Repository 拥有独立的有界队列和写入线程，一个 Repository 写入变慢只会占满自己的队列，
+ * 不会影响其他 Repository 的写入。主存储队列已满时调用方等待，非主存储队列已满时直接丢弃数据。
+ * <p>
+ * 失败处理策略为 SPOOL 时，写入失败或队列已满的数据保存到本地 PointValueSpool 并视为写入成功，
+ * 由单独的线程按顺序限速重放；暂存中有数据时新的数据直接追加到暂存之后，重放完成前不直接写入 Repository，
+ * 保证 Repository 按原有顺序收到数据。
+ * <p>
+ * 写入指标通过 Micrometer 上报，Tag 为 repository：
+ * dc3.repository.saved、dc3.repository.failed、dc3.repository.dropped、dc3.repository.queue、dc3.repository.write，
+ * 以及暂存相关的 dc3.repository.spooled、dc3.repository.replayed、dc3.repository.spool，
+ * 和暂存已满或 Segment 损坏时丢弃的批次数量 dc3.repository.spool.dropped，这些批次对应的消息已确认，只能通过该指标发现。
+ *
+ * @author pnoker
+ */
+@Slf4j
+public class RepositoryPipeline {
+
+    private final String name;
+    private final RepositoryService repositoryService;
+    private final RepositoryProperty.PipelineProperty property;
+    private final ThreadPoolExecutor executor;
+
+    private final Counter saved;
+    private final Counter failed;
+    private final Counter dropped;
+    private final Timer write;
+
+    private PointValueSpool spool;
+    private RateLimiter replayLimiter;
+    private int replayTimes;
+    private int replayFailures = 0;
+    private ScheduledExecutorService replayer;
+    private final ReadWriteLock replayLock = new ReentrantReadWriteLock();
+    private Counter spooled;
+    private Counter replayed;
+
+    public RepositoryPipeline(String name, RepositoryService repositoryService, RepositoryProperty.PipelineProperty property,
+                              RepositoryProperty.SpoolProperty spoolProperty, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.repositoryService = repositoryService;
+        this.property = property;
+
+        AtomicInteger index = new AtomicInteger(0);
+        this.executor = new ThreadPoolExecutor(
+                property.getPoolSize(),
+                property.getPoolSize(),
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(property.getQueueSize()),
+                r -> {
+                    Thread thread = new Thread(r, "dc3-repository-" + name + "-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                property.isPrimary() ? new BlockingPolicy() : new ThreadPoolExecutor.AbortPolicy());
+
+        this.saved = Counter.builder("dc3.repository.saved").tag("repository", name).register(meterRegistry);
+        this.failed = Counter.builder("dc3.repository.failed").tag("repository", name).register(meterRegistry);
+        this.dropped = Counter.builder("dc3.repository.dropped").tag("repository", name).register(meterRegistry);
+        this.write = Timer.builder("dc3.repository.write").tag("repository", name).register(meterRegistry);
+        Gauge.builder("dc3.repository.queue", executor, e -> e.getQueue().size()).tag("repository", name).register(meterRegistry);
+
+        if (RepositoryProperty.FailurePolicy.SPOOL.equals(property.getFailurePolicy())) {
+            try {
+                this.spool = new PointValueSpool(name, new File(spoolProperty.getPath(), name), spoolProperty.getSegmentSize(), spoolProperty.getMaxSize());
+            } catch (IOException e) {
+                throw new IllegalStateException("Create repository(" + name + ") spool error: " + e.getMessage(), e);
+            }
+            this.replayLimiter = RateLimiter.create(spoolProperty.getReplayRate());
+            this.replayTimes = spoolProperty.getReplayTimes();
+            this.replayer = Executors.newScheduledThreadPool(2, r -> {
+                Thread thread = new Thread(r, "dc3-repository-" + name + "-replay");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.replayer.scheduleWithFixedDelay(this::replay, spoolProperty.getReplayInterval(), spoolProperty.getReplayInterval(), TimeUnit.MILLISECONDS);
+            this.replayer.scheduleWithFixedDelay(this::force, spoolProperty.getForceInterval(), spoolProperty.getForceInterval(), TimeUnit.MILLISECONDS);
+
+            this.spooled = Counter.builder("dc3.repository.spooled").tag("repository", name).register(meterRegistry);
+            this.replayed = Counter.builder("dc3.repository.replayed").tag("repository", name).register(meterRegistry);
+            Gauge.builder("dc3.repository.spool", spool, PointValueSpool::size).tag("repository", name).register(meterRegistry);
+            FunctionCounter.builder("dc3.repository.spool.dropped", spool, PointValueSpool::dropped).tag("repository", name).register(meterRegistry);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isPrimary() {
+        return property.isPrimary();
+    }
+
+    /**
+     * 提交一个设备的位号数据到写入队列
+     *
+     * @param deviceId    Device Id
+     * @param pointValues PointValue Array
+     * @return 写入完成后结束，写入失败或数据被丢弃时异常结束
+     */
+    public CompletableFuture<Void> submit(String deviceId, List<PointValue> pointValues) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    for (List<PointValue> partition : Lists.partition(pointValues, property.getBatchSize())) {
+                        save(deviceId, partition);
+                    }
+                    future.complete(null);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (null != spool && spool(deviceId, pointValues)) {
+                future.complete(null);
+                return future;
+            }
+            dropped.increment(pointValues.size());
+            log.warn("Repository({}) queue is full, drop point values, device: {}, size: {}", name, deviceId, pointValues.size());
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 停止接收新数据，并等待队列中的数据写入完成
+     *
+     * @param timeout 最多等待毫秒数
+     */
+    public void shutdown(long timeout) {
+        if (null != replayer) {
+            replayer.shutdownNow();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                log.warn("Repository({}) pipeline shutdown timeout, remaining: {}", name, executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        if (null != spool) {
+            closeSpool(timeout);
+        }
+    }
+
+    /**
+     * 等待重放线程结束后释放暂存，重放线程未结束时只刷盘，避免访问已释放的内存映射
+     */
+    private void closeSpool(long timeout) {
+        try {
+            if (replayer.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                spool.close();
+                return;
+            }
+            log.warn("Repository({}) spool replay shutdown timeout", name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        spool.force();
+    }
+
+    private void save(String deviceId, List<PointValue> pointValues) throws InterruptedException {
+        if (null == spool) {
+            write(deviceId, pointValues);
+            return;
+        }
+
+        replayLock.readLock().lock();
+        try {
+            // 暂存中还有数据时追加到暂存之后，由重放按顺序写入
+            if (spool.size() > 0 && spool(deviceId, pointValues)) {
+                return;
+            }
+            write(deviceId, pointValues);
+        } finally {
+            replayLock.readLock().unlock();
+        }
+    }
+
+    private void write(String deviceId, List<PointValue> pointValues) throws InterruptedException {
+        boolean retry = !RepositoryProperty.FailurePolicy.DROP.equals(property.getFailurePolicy()) && (null == spool || spool.size() == 0);
+        int retryTimes = retry ? property.getRetryTimes() : 0;
+        long interval = property.getRetryInterval();
+        for (int times = 0; ; times++) {
+            long start = System.nanoTime();
+            try {
+                repositoryService.savePointValues(deviceId, pointValues);
+                write.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                saved.increment(pointValues.size());
+                return;
+            } catch (Exception e) {
+                write.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (times >= retryTimes) {
+                    if (null != spool && spool(deviceId, pointValues)) {
+                        log.warn("Save point values to {} error, spooled, device: {}, size: {}, {}", name, deviceId, pointValues.size(), e.getMessage());
+                        return;
+                    }
+                    failed.increment(pointValues.size());
+                    log.error("Save point values to {} error, device: {}, size: {}, {}", name, deviceId, pointValues.size(), e.getMessage());
+                    throw e;
+                }
+                log.warn("Save point values to {} error, retry({}) after {}ms, {}", name, times + 1, interval, e.getMessage());
+                Thread.sleep(interval);
+                interval = interval * 2;
+            }
+        }
+    }
+
+    private boolean spool(String deviceId, List<PointValue> pointValues) {
+        try {
+            spool.append(pointValues);
+            spooled.increment(pointValues.size());
+            return true;
+        } catch (Exception e) {
+            log.error("Spool point values of {} error, device: {}, size: {}, {}", name, deviceId, pointValues.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 按写入顺序重放暂存的数据，重放失败时等待下次检查
+     * <p>
+     * 每条记录在写锁中写入并标记完成，暂存取空后新的数据才会直接写入 Repository。
+     * 同一条记录重放失败达到 replayTimes 次后计为写入失败并标记完成，继续重放之后的记录。
+     */
+    private void replay() {
+        try {
+            PointValueSpool.Record record;
+            while (null != (record = spool.next())) {
+                List<PointValue> pointValues = record.getPointValues();
+                if (!pointValues.isEmpty()) {
+                    replayLimiter.acquire(pointValues.size());
+                }
+
+                replayLock.writeLock().lock();
+                try {
+                    if (!pointValues.isEmpty()) {
+                        try {
+                            repositoryService.savePointValues(pointValues.get(0).getDeviceId(), pointValues);
+                            replayed.increment(pointValues.size());
+                        } catch (Exception e) {
+                            if (++replayFailures < replayTimes) {
+                                throw e;
+                            }
+                            failed.increment(pointValues.size());
+                            log.error("Replay point values to {} error after {} times, skip, device: {}, size: {}, {}",
+                                    name, replayFailures, pointValues.get(0).getDeviceId(), pointValues.size(), e.getMessage());
+                        }
+                    }
+                    replayFailures = 0;
+                    spool.commit(record);
+                } finally {
+                    replayLock.writeLock().unlock();
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Replay point values to {} error, remaining: {}, {}", name, spool.size(), e.getMessage());
+        }
+    }
+
+    private void force() {
+        try {
+            spool.force();
+        } catch (Exception e) {
+            log.warn("Force spool of {} error: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * 队列已满时等待空闲位置，用于主存储，将写入压力传递给上游的批量保存
+     */
+    private static class BlockingPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Repository pipeline is shutdown");
+            }
+            try {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        }
+    }
+}
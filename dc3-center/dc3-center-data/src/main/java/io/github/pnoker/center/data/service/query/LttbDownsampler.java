@@ -0,0 +1,164 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LTTB（Largest-Triangle-Three-Buckets）流式降采样
+ * <p>
+ * 按时间将 [startTime, endTime) 等分为 threshold - 2 个区间，第一个与最后一个数据总是保留，
+ * 每个区间保留与上一个保留数据、下一个非空区间平均值构成三角形面积最大的数据。
+ * 数据须按时间升序依次加入，只缓存当前与下一个非空区间中的数据，内存占用与总数据量无关。
+ *
+ * @author pnoker
+ */
+public class LttbDownsampler {
+
+    private final long startTime;
+    private final double width;
+
+    private final List<Sample> selected = new ArrayList<>();
+    private Sample anchor;
+    private Sample pending;
+
+    private List<Sample> current = new ArrayList<>();
+    private long currentIndex;
+    private List<Sample> next = new ArrayList<>();
+    private long nextIndex;
+
+    public LttbDownsampler(long startTime, long endTime, int threshold) {
+        this.startTime = startTime;
+        this.width = Math.max(1D, (double) (endTime - startTime) / Math.max(1, threshold - 2));
+    }
+
+    /**
+     * 按时间升序加入数据
+     *
+     * @param time  时间戳
+     * @param value 数值
+     * @param text  原始值
+     */
+    public void add(long time, double value, String text) {
+        Sample sample = new Sample(time, value, text);
+        if (null == anchor) {
+            anchor = sample;
+            selected.add(sample);
+            return;
+        }
+
+        // 最后一个数据总是保留，因此延后一个数据再放入区间
+        if (null != pending) {
+            bucket(pending);
+        }
+        pending = sample;
+    }
+
+    /**
+     * 结束加入数据，返回降采样结果
+     *
+     * @return Sample Array，按时间升序
+     */
+    public List<Sample> finish() {
+        if (null == pending) {
+            return selected;
+        }
+
+        if (!next.isEmpty()) {
+            select(current, average(next));
+            current = next;
+            next = new ArrayList<>();
+        }
+        if (!current.isEmpty()) {
+            select(current, pending);
+        }
+        selected.add(pending);
+        pending = null;
+        return selected;
+    }
+
+    private void bucket(Sample sample) {
+        long index = (long) ((sample.time - startTime) / width);
+        if (current.isEmpty() || index == currentIndex) {
+            currentIndex = index;
+            current.add(sample);
+        } else if (next.isEmpty() || index == nextIndex) {
+            nextIndex = index;
+            next.add(sample);
+        } else {
+            select(current, average(next));
+            current = next;
+            currentIndex = nextIndex;
+            next = new ArrayList<>();
+            nextIndex = index;
+            next.add(sample);
+        }
+    }
+
+    /**
+     * 保留区间中与 anchor、third 构成三角形面积最大的数据
+     */
+    private void select(List<Sample> bucket, Sample third) {
+        Sample max = bucket.get(0);
+        double maxArea = -1;
+        for (Sample sample : bucket) {
+            double area = Math.abs((anchor.time - third.time) * (sample.value - anchor.value) - (anchor.time - (double) sample.time) * (third.value - anchor.value));
+            if (area > maxArea) {
+                maxArea = area;
+                max = sample;
+            }
+        }
+        selected.add(max);
+        anchor = max;
+        bucket.clear();
+    }
+
+    private Sample average(List<Sample> bucket) {
+        double time = 0;
+        double value = 0;
+        for (Sample sample : bucket) {
+            time += sample.time;
+            value += sample.value;
+        }
+        return new Sample((long) (time / bucket.size()), value / bucket.size(), null);
+    }
+
+    public static class Sample {
+        private final long time;
+        private final double value;
+        private final String text;
+
+        Sample(long time, double value, String text) {
+            this.time = time;
+            this.value = value;
+            this.text = text;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.rabbit;
+
+import io.github.pnoker.center.data.service.buffer.PointValueFlusher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根据保存中的批次数量调整位号数据消费者数量
+ * <p>
+ * 保存中的批次达到上限时说明存储已经饱和，逐个减少消费者，让数据留在 Broker 中；
+ * 保存中的批次不足一半时逐个增加消费者，直到 data.point.receive.concurrency.max。
+ * <p>
+ * 开启 data.point.receive.deferred-ack 后不再减少消费者：被移除的消费者会关闭其 Channel，
+ * Broker 将该 Channel 上尚未确认的消息全部重新投递，保存完成后的 ack 也会因 Channel 关闭而失败。
+ * 此时存储饱和只停止增加消费者，由 prefetch 与缓冲区容量限制未确认的消息数量。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueListenerTuner implements InitializingBean {
+
+    @Value("${data.point.receive.concurrency.min}")
+    private Integer minConsumers;
+    @Value("${data.point.receive.concurrency.max}")
+    private Integer maxConsumers;
+    @Value("${data.point.receive.deferred-ack}")
+    private Boolean deferredAck;
+
+    @Resource
+    private PointValueFlusher pointValueFlusher;
+    @Resource
+    private RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
+    @Resource
+    private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+    private int consumers;
+
+    @Override
+    public void afterPropertiesSet() {
+        consumers = minConsumers;
+        scheduledThreadPoolExecutor.scheduleWithFixedDelay(this::tune, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void tune() {
+        try {
+            int pending = pointValueFlusher.pending();
+            int target = consumers;
+            if (pending >= pointValueFlusher.maxPending()) {
+                target = deferredAck ? consumers : Math.max(minConsumers, consumers - 1);
+            } else if (pending * 2 < pointValueFlusher.maxPending()) {
+                target = Math.min(maxConsumers, consumers + 1);
+            }
+
+            if (target != consumers) {
+                log.debug("Point value listener consumers: {} -> {}, pending batch: {}", consumers, target, pending);
+                setConcurrentConsumers(PointValueReceiver.LISTENER_ID, target);
+                setConcurrentConsumers(PointValueReceiver.BATCH_LISTENER_ID, target);
+                consumers = target;
+            }
+        } catch (Exception e) {
+            log.error("Tune point value listener error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void setConcurrentConsumers(String listenerId, int consumers) {
+        MessageListenerContainer container = rabbitListenerEndpointRegistry.getListenerContainer(listenerId);
+        if (container instanceof SimpleMessageListenerContainer && container.isRunning()) {
+            ((SimpleMessageListenerContainer) container).setConcurrentConsumers(consumers);
+        }
+    }
+}
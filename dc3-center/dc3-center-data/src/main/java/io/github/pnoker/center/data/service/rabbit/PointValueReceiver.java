@@ -16,8 +16,8 @@
 
 package io.github.pnoker.center.data.service.rabbit;
 
-import io.github.pnoker.center.data.service.RepositoryHandleService;
-import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.center.data.service.buffer.PointValueBuffer;
+import io.github.pnoker.center.data.service.buffer.PointValueDelivery;
 import io.github.pnoker.center.data.service.job.PointValueScheduleJob;
 import io.github.pnoker.common.bean.point.PointValue;
 import com.rabbitmq.client.Channel;
@@ -30,12 +30,16 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
 import java.io.IOException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 接收驱动发送过来的数据
  * <p>
  * 200万条SinglePointValue会产生：60M的索引数据以及400M的数据
+ * <p>
+ * 开启 data.point.receive.deferred-ack 后，消息在其中的位号数据保存完成后才会 ack，
+ * 未确认的消息由 Broker 保留，消费速度受存储能力而不是堆内存限制
  *
  * @author pnoker
  */
@@ -43,40 +47,66 @@ import java.util.concurrent.ThreadPoolExecutor;
 @Component
 public class PointValueReceiver {
 
-    @Value("${data.point.batch.speed}")
-    private Integer batchSpeed;
+    public static final String LISTENER_ID = "pointValueListener";
+    public static final String BATCH_LISTENER_ID = "pointValuesListener";
+
+    @Value("${data.point.receive.deferred-ack}")
+    private Boolean deferredAck;
 
     @Resource
-    private PointValueService pointValueService;
-    @Resource
-    private RepositoryHandleService repositoryHandleService;
-    @Resource
-    private ThreadPoolExecutor threadPoolExecutor;
+    private PointValueBuffer pointValueBuffer;
 
     @RabbitHandler
-    @RabbitListener(queues = "#{pointValueQueue.name}")
+    @RabbitListener(id = LISTENER_ID, queues = "#{pointValueQueue.name}")
     public void pointValueReceive(Channel channel, Message message, PointValue pointValue) {
         try {
-            channel.basicAck(message.getMessageProperties().getDeliveryTag(), true);
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
             if (null == pointValue || null == pointValue.getDeviceId()) {
+                // Deferred messages may still be unacked, only this message can be acked
+                channel.basicAck(deliveryTag, !deferredAck);
                 log.error("Invalid point value: {}", pointValue);
                 return;
             }
-            PointValueScheduleJob.valueCount.getAndIncrement();
+            if (!deferredAck) {
+                channel.basicAck(deliveryTag, true);
+            }
+            PointValueScheduleJob.valueCount.increment();
             log.debug("Point value, From: {}, Received: {}", message.getMessageProperties().getReceivedRoutingKey(), pointValue);
 
-            // Judge whether to process data in batch according to the data transmission speed
-            if (PointValueScheduleJob.valueSpeed.get() < batchSpeed) {
-                threadPoolExecutor.execute(() -> {
-                    // Save point value to Redis & MongoDB
-                    pointValueService.savePointValue(pointValue);
-                });
-            } else {
-                // Save point value to schedule
-                PointValueScheduleJob.valueLock.writeLock().lock();
-                PointValueScheduleJob.pointValues.add(pointValue);
-                PointValueScheduleJob.valueLock.writeLock().unlock();
+            // Save point value to buffer, PointValueFlusher will save it in batch
+            PointValueDelivery delivery = deferredAck ? new PointValueDelivery(channel, deliveryTag, 1) : null;
+            pointValueBuffer.offer(pointValue, delivery);
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    @RabbitHandler
+    @RabbitListener(id = BATCH_LISTENER_ID, queues = "#{pointValuesQueue.name}", containerFactory = "pointValuesListenerContainerFactory")
+    public void pointValuesReceive(Channel channel, Message message, List<PointValue> pointValues) {
+        try {
+            long deliveryTag = message.getMessageProperties().getDeliveryTag();
+            List<PointValue> validValues = null == pointValues ? null : pointValues.stream()
+                    .filter(pointValue -> null != pointValue && null != pointValue.getDeviceId())
+                    .collect(Collectors.toList());
+            if (null == validValues || validValues.isEmpty()) {
+                // Deferred messages may still be unacked, only this message can be acked
+                channel.basicAck(deliveryTag, !deferredAck);
+                log.error("Invalid point values: {}", pointValues);
+                return;
+            }
+            if (!deferredAck) {
+                channel.basicAck(deliveryTag, true);
             }
+            if (validValues.size() < pointValues.size()) {
+                log.error("Invalid point values, ignored size: {}", pointValues.size() - validValues.size());
+            }
+            PointValueScheduleJob.valueCount.add(validValues.size());
+            log.debug("Point values, From: {}, Received size: {}", message.getMessageProperties().getReceivedRoutingKey(), validValues.size());
+
+            // Save point values to buffer, the message is acked after all of them are saved
+            PointValueDelivery delivery = deferredAck ? new PointValueDelivery(channel, deliveryTag, validValues.size()) : null;
+            validValues.forEach(pointValue -> pointValueBuffer.offer(pointValue, delivery));
         } catch (IOException e) {
             log.error(e.getMessage(), e);
         }
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.rollup;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 位号数据增量汇总
+ * <p>
+ * 写入历史存储并保存成功的数值型位号数据（经过 PointValueFilter 过滤）按 1 分钟、1 小时、1 天的时间窗口在内存中累加 count、sum、min、max、first、last，
+ * 时间窗口按 CommonConstant.Time.TIMEZONE 时区对齐；
+ * 每 data.point.rollup.flush-interval 毫秒以 upsert 合并到汇总集合 point_value_rollup_{粒度}_{设备ID}，
+ * 每个位号每个时间窗口一个文档。长时间范围的聚合查询直接读取汇总数据，无需扫描原始数据。
+ * <p>
+ * 写入失败的累加值放回内存，下次合并时重试。
+ *
+ * @author pnoker
+ */
+@Slf4j
+@Component
+public class PointValueRollup implements InitializingBean, DisposableBean {
+
+    @Value("${data.point.rollup.enable}")
+    private Boolean enable;
+    @Value("${data.point.rollup.flush-interval}")
+    private Long flushInterval;
+
+    @Resource
+    private MongoProperty mongoProperty;
+    @Resource
+    private MongoTemplate mongoTemplate;
+    @Resource
+    private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+    private final Map<Key, Accumulator> accumulators = new ConcurrentHashMap<>();
+    private final Set<String> indexedCollections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 汇总粒度
+     */
+    private static final TimeZone ZONE = TimeZone.getTimeZone(CommonConstant.Time.TIMEZONE);
+
+    @Getter
+    public enum Level {
+        MINUTE("1m", TimeUnit.MINUTES.toMillis(1)),
+        HOUR("1h", TimeUnit.HOURS.toMillis(1)),
+        DAY("1d", TimeUnit.DAYS.toMillis(1));
+
+        private final String code;
+        private final long width;
+
+        Level(String code, long width) {
+            this.code = code;
+            this.width = width;
+        }
+
+        /**
+         * 时间所在时间窗口的开始时间，按 CommonConstant.Time.TIMEZONE 时区对齐，1 天的时间窗口从当地 0 点开始
+         *
+         * @param time 时间，毫秒
+         * @return 时间窗口的开始时间，毫秒
+         */
+        public long floor(long time) {
+            return time - Math.floorMod(time + ZONE.getOffset(time), width);
+        }
+
+        /**
+         * 不早于时间的最近时间窗口开始时间
+         *
+         * @param time 时间，毫秒
+         * @return 时间窗口的开始时间，毫秒
+         */
+        public long ceil(long time) {
+            long floor = floor(time);
+            return floor == time ? time : next(floor);
+        }
+
+        /**
+         * 下一个时间窗口的开始时间，夏令时切换日的时间窗口不足或超过 1 天，因此取下一个时间窗口中间时间所在的窗口
+         *
+         * @param start 时间窗口的开始时间，毫秒
+         * @return 下一个时间窗口的开始时间，毫秒
+         */
+        public long next(long start) {
+            return floor(start + width + width / 2);
+        }
+
+        /**
+         * 不大于 interval 的最大汇总粒度，没有时返回 null
+         *
+         * @param interval 时间间隔，毫秒
+         * @return Level
+         */
+        public static Level coarsest(long interval) {
+            Level coarsest = null;
+            for (Level level : values()) {
+                if (level.width <= interval) {
+                    coarsest = level;
+                }
+            }
+            return coarsest;
+        }
+    }
+
+    public boolean isEnable() {
+        return enable;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * 汇总集合名称
+     *
+     * @param level    Level
+     * @param deviceId Device Id
+     * @return Collection Name
+     */
+    public static String collection(Level level, String deviceId) {
+        return CommonConstant.Storage.POINT_VALUE_ROLLUP_PREFIX + level.getCode() + CommonConstant.Symbol.UNDERSCORE + deviceId;
+    }
+
+    /**
+     * 累加位号数据，非数值型数据忽略
+     *
+     * @param pointValues PointValue Array
+     */
+    public void accumulate(List<PointValue> pointValues) {
+        if (!enable) {
+            return;
+        }
+
+        for (PointValue pointValue : pointValues) {
+            Date date = "createTime".equals(mongoProperty.getTimeField()) ? pointValue.getCreateTime() : pointValue.getOriginTime();
+            Double value = numeric(pointValue.getValue());
+            if (null == date || null == value || null == pointValue.getDeviceId() || null == pointValue.getPointId()) {
+                continue;
+            }
+
+            long time = date.getTime();
+            for (Level level : Level.values()) {
+                Key key = new Key(level, pointValue.getDeviceId(), pointValue.getPointId(), level.floor(time));
+                accumulators.compute(key, (k, accumulator) -> (null == accumulator ? new Accumulator() : accumulator).add(time, value));
+            }
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (enable) {
+            scheduledThreadPoolExecutor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (enable) {
+            flushQuietly();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Flush point value rollup error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        Map<String, List<Key>> collectionKeys = new HashMap<>();
+        Map<Key, Accumulator> flushing = new HashMap<>();
+        for (Key key : accumulators.keySet()) {
+            Accumulator accumulator = accumulators.remove(key);
+            if (null != accumulator) {
+                flushing.put(key, accumulator);
+                collectionKeys.computeIfAbsent(collection(key.level, key.deviceId), k -> new ArrayList<>()).add(key);
+            }
+        }
+
+        collectionKeys.forEach((collection, keys) -> {
+            List<UpdateOneModel<Document>> models = new ArrayList<>(keys.size());
+            for (Key key : keys) {
+                models.add(update(key, flushing.get(key)));
+            }
+
+            try {
+                ensureCollection(collection);
+                mongoTemplate.getCollection(collection).bulkWrite(models, new BulkWriteOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                List<BulkWriteError> errors = e.getWriteErrors();
+                log.error("Flush point value rollup {} error: {}, failed: {}", collection, errors.isEmpty() ? e.getMessage() : errors.get(0).getMessage(), errors.size());
+                errors.forEach(error -> restore(keys.get(error.getIndex()), flushing.get(keys.get(error.getIndex()))));
+            } catch (Exception e) {
+                log.error("Flush point value rollup {} error: {}", collection, e.getMessage());
+                keys.forEach(key -> restore(key, flushing.get(key)));
+            }
+        });
+    }
+
+    private void restore(Key key, Accumulator accumulator) {
+        accumulators.merge(key, accumulator, Accumulator::merge);
+    }
+
+    /**
+     * 合并累加值的 upsert，在同一个 $set 阶段中引用的均为更新前的字段值
+     */
+    private UpdateOneModel<Document> update(Key key, Accumulator accumulator) {
+        Date firstTime = new Date(accumulator.firstTime);
+        Date lastTime = new Date(accumulator.lastTime);
+        Document set = new Document("deviceId", key.deviceId)
+                .append("pointId", key.pointId)
+                .append("start", new Date(key.start))
+                .append("count", new Document("$add", Arrays.asList(new Document("$ifNull", Arrays.asList("$count", 0L)), accumulator.count)))
+                .append("sum", new Document("$add", Arrays.asList(new Document("$ifNull", Arrays.asList("$sum", 0D)), accumulator.sum)))
+                .append("min", new Document("$min", Arrays.asList("$min", accumulator.min)))
+                .append("max", new Document("$max", Arrays.asList("$max", accumulator.max)))
+                .append("first", new Document("$cond", Arrays.asList(new Document("$lt", Arrays.asList(firstTime, new Document("$ifNull", Arrays.asList("$firstTime", new Date(Long.MAX_VALUE))))), accumulator.first, "$first")))
+                .append("firstTime", new Document("$min", Arrays.asList("$firstTime", firstTime)))
+                .append("last", new Document("$cond", Arrays.asList(new Document("$gte", Arrays.asList(lastTime, new Document("$ifNull", Arrays.asList("$lastTime", new Date(0))))), accumulator.last, "$last")))
+                .append("lastTime", new Document("$max", Arrays.asList("$lastTime", lastTime)));
+
+        Document filter = new Document("_id", key.pointId + CommonConstant.Symbol.UNDERSCORE + key.start);
+        return new UpdateOneModel<>(filter, Collections.singletonList(new Document("$set", set)), new UpdateOptions().upsert(true));
+    }
+
+    private void ensureCollection(String collection) {
+        if (indexedCollections.add(collection)) {
+            try {
+                mongoTemplate.getCollection(collection).createIndex(Indexes.ascending("pointId", "start"), new IndexOptions().background(true).name("IX_point_id_start"));
+                mongoTemplate.getCollection(collection).createIndex(Indexes.ascending("start"), new IndexOptions().background(true).name("IX_start"));
+            } catch (Exception e) {
+                indexedCollections.remove(collection);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 十进制数值的位号数据转换为 double，与聚合查询中 $convert 的处理一致，其他返回 null
+     * <p>
+     * Double.parseDouble 还接受 1d、2f、十六进制与首尾空白，$convert 不接受，因此使用 BigDecimal 解析。
+     */
+    private Double numeric(String value) {
+        if (null == value) {
+            return null;
+        }
+
+        try {
+            double number = new BigDecimal(value).doubleValue();
+            return Double.isFinite(number) ? number : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Key {
+        private final Level level;
+        private final String deviceId;
+        private final String pointId;
+        private final long start;
+
+        Key(Level level, String deviceId, String pointId, long start) {
+            this.level = level;
+            this.deviceId = deviceId;
+            this.pointId = pointId;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return start == key.start && level == key.level && deviceId.equals(key.deviceId) && pointId.equals(key.pointId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, deviceId, pointId, start);
+        }
+    }
+
+    private static class Accumulator {
+        private long count;
+        private double sum;
+        private double min = Double.MAX_VALUE;
+        private double max = -Double.MAX_VALUE;
+        private double first;
+        private long firstTime = Long.MAX_VALUE;
+        private double last;
+        private long lastTime = Long.MIN_VALUE;
+
+        Accumulator add(long time, double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (time < firstTime) {
+                firstTime = time;
+                first = value;
+            }
+            if (time >= lastTime) {
+                lastTime = time;
+                last = value;
+            }
+            return this;
+        }
+
+        Accumulator merge(Accumulator other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (other.firstTime < firstTime) {
+                firstTime = other.firstTime;
+                first = other.first;
+            }
+            if (other.lastTime >= lastTime) {
+                lastTime = other.lastTime;
+                last = other.last;
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.buffer;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueBuffer 分片写入与取出测试
+ *
+ * @author pnoker
+ */
+class PointValueBufferTest {
+
+    private PointValueBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        buffer = new PointValueBuffer();
+        ReflectionTestUtils.setField(buffer, "shardCount", 2);
+        ReflectionTestUtils.setField(buffer, "batchSize", 100);
+        ReflectionTestUtils.setField(buffer, "capacity", 1000);
+        buffer.afterPropertiesSet();
+    }
+
+    @Test
+    void drainKeepsOrderWithinDevice() {
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(value("d1", String.valueOf(i)));
+        }
+
+        List<String> values = buffer.drain().stream().map(PointValue::getValue).collect(Collectors.toList());
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(String.valueOf(i));
+        }
+        assertEquals(expected, values);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.age());
+    }
+
+    @Test
+    void drainRotatesAcrossShards() {
+        String[] devices = devicesInDifferentShards();
+        for (int i = 0; i < 10; i++) {
+            buffer.offer(value(devices[0], String.valueOf(i)));
+            buffer.offer(value(devices[1], String.valueOf(i)));
+        }
+
+        // 每个分片的数据都多于一次取出的数量时，连续两次取出仍然来自不同分片
+        Set<String> first = deviceIds(buffer.drain(5));
+        Set<String> second = deviceIds(buffer.drain(5));
+        assertEquals(1, first.size());
+        assertEquals(1, second.size());
+        assertNotEquals(first, second);
+        assertEquals(10, buffer.size());
+    }
+
+    @Test
+    void drainCollectsDeliveries() {
+        PointValueDelivery delivery = new PointValueDelivery(null, 1L, 2);
+        buffer.offer(value("d1", "1"), delivery);
+        buffer.offer(value("d1", "2"), delivery);
+        buffer.offer(value("d1", "3"));
+
+        List<PointValueDelivery> deliveries = new ArrayList<>();
+        assertEquals(3, buffer.drain(10, deliveries).size());
+        assertEquals(Collections.nCopies(2, delivery), deliveries);
+    }
+
+    private String[] devicesInDifferentShards() {
+        Object shard = ReflectionTestUtils.invokeMethod(buffer, "shard", "d0");
+        for (int i = 1; i < 100; i++) {
+            String deviceId = "d" + i;
+            if (shard != ReflectionTestUtils.invokeMethod(buffer, "shard", deviceId)) {
+                return new String[]{"d0", deviceId};
+            }
+        }
+        throw new IllegalStateException("No device in another shard");
+    }
+
+    private Set<String> deviceIds(List<PointValue> pointValues) {
+        return pointValues.stream().map(PointValue::getDeviceId).collect(Collectors.toSet());
+    }
+
+    private PointValue value(String deviceId, String value) {
+        return new PointValue(deviceId, "p1", value, value);
+    }
+}
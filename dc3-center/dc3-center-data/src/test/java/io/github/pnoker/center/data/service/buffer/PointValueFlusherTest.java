@@ -0,0 +1,177 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.buffer;
+
+import com.rabbitmq.client.Channel;
+import io.github.pnoker.center.data.service.PointValueService;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.exception.ServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * PointValueFlusher 按数量、等待时间保存及消息确认测试
+ *
+ * @author pnoker
+ */
+class PointValueFlusherTest {
+
+    private final PointValueService pointValueService = mock(PointValueService.class);
+    private final List<List<PointValue>> batches = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+    private PointValueFlusher flusher;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        futures.forEach(future -> future.complete(null));
+        flusher.destroy();
+    }
+
+    @Test
+    void flushesWhenBatchIsFull() {
+        flusher = flusher(3, 60000, 4);
+        PointValueBuffer buffer = buffer(flusher);
+        buffer.offer(value("1"));
+        buffer.offer(value("2"));
+        assertTrue(batches.isEmpty());
+
+        buffer.offer(value("3"));
+        await(() -> batches.size() == 1);
+        assertEquals(3, batches.get(0).size());
+    }
+
+    @Test
+    void flushesAfterTimeout() {
+        flusher = flusher(100, 50, 4);
+        buffer(flusher).offer(value("1"));
+
+        await(() -> batches.size() == 1);
+        assertEquals(1, batches.get(0).size());
+    }
+
+    @Test
+    void waitsForPendingBatches() {
+        flusher = flusher(1, 60000, 1);
+        PointValueBuffer buffer = buffer(flusher);
+        buffer.offer(value("1"));
+        buffer.offer(value("2"));
+        await(() -> batches.size() == 1);
+
+        // 保存中的批次达到上限时不再取出数据，已有批次完成后继续保存
+        sleep(100);
+        assertEquals(1, batches.size());
+        assertEquals(1, flusher.pending());
+
+        futures.get(0).complete(null);
+        await(() -> batches.size() == 2);
+        assertEquals("2", batches.get(1).get(0).getValue());
+    }
+
+    @Test
+    void acksAfterEveryValueIsSaved() throws Exception {
+        flusher = flusher(1, 60000, 4);
+        PointValueBuffer buffer = buffer(flusher);
+        Channel channel = mock(Channel.class);
+        PointValueDelivery delivery = new PointValueDelivery(channel, 7L, 2);
+        buffer.offer(value("1"), delivery);
+        buffer.offer(value("2"), delivery);
+        await(() -> batches.size() == 2);
+
+        futures.get(0).complete(null);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+
+        futures.get(1).complete(null);
+        verify(channel).basicAck(7L, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void nacksWhenAnyValueFails() throws Exception {
+        flusher = flusher(1, 60000, 4);
+        PointValueBuffer buffer = buffer(flusher);
+        Channel channel = mock(Channel.class);
+        PointValueDelivery delivery = new PointValueDelivery(channel, 7L, 2);
+        buffer.offer(value("1"), delivery);
+        buffer.offer(value("2"), delivery);
+        await(() -> batches.size() == 2);
+
+        futures.get(0).completeExceptionally(new ServiceException("Repository unavailable"));
+        futures.get(1).complete(null);
+        verify(channel).basicNack(7L, false, true);
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    }
+
+    private PointValueFlusher flusher(int batchSize, long timeout, int maxPending) {
+        PointValueBuffer buffer = new PointValueBuffer();
+        ReflectionTestUtils.setField(buffer, "shardCount", 2);
+        ReflectionTestUtils.setField(buffer, "batchSize", batchSize);
+        ReflectionTestUtils.setField(buffer, "capacity", 1000);
+        buffer.afterPropertiesSet();
+
+        when(pointValueService.savePointValues(anyList())).thenAnswer(invocation -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            batches.add(invocation.getArgument(0));
+            return future;
+        });
+
+        PointValueFlusher flusher = new PointValueFlusher();
+        ReflectionTestUtils.setField(flusher, "batchSize", batchSize);
+        ReflectionTestUtils.setField(flusher, "timeout", timeout);
+        ReflectionTestUtils.setField(flusher, "maxPending", maxPending);
+        ReflectionTestUtils.setField(flusher, "pointValueBuffer", buffer);
+        ReflectionTestUtils.setField(flusher, "pointValueService", pointValueService);
+        flusher.afterPropertiesSet();
+        return flusher;
+    }
+
+    private PointValueBuffer buffer(PointValueFlusher flusher) {
+        return (PointValueBuffer) ReflectionTestUtils.getField(flusher, "pointValueBuffer");
+    }
+
+    private void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            sleep(10);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(e);
+        }
+    }
+
+    private PointValue value(String value) {
+        return new PointValue("d1", "p1", value, value);
+    }
+}
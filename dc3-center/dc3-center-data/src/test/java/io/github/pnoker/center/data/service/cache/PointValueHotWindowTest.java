@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.cache;
+
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueHotWindow 写入与查询测试
+ *
+ * @author pnoker
+ */
+class PointValueHotWindowTest {
+
+    private PointValueHotWindow hotWindow;
+    private long start;
+
+    @BeforeEach
+    void setUp() {
+        MongoProperty mongoProperty = new MongoProperty();
+        mongoProperty.setMode(MongoProperty.Mode.TIME_SERIES);
+
+        hotWindow = new PointValueHotWindow();
+        ReflectionTestUtils.setField(hotWindow, "enable", true);
+        ReflectionTestUtils.setField(hotWindow, "span", 3600000L);
+        ReflectionTestUtils.setField(hotWindow, "maxMemory", 1L << 20);
+        ReflectionTestUtils.setField(hotWindow, "blockSize", 16);
+        ReflectionTestUtils.setField(hotWindow, "mongoProperty", mongoProperty);
+        hotWindow.afterPropertiesSet();
+        start = System.currentTimeMillis();
+    }
+
+    @Test
+    void rangeReturnsWrittenValuesNewestFirst() {
+        List<PointValue> pointValues = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            pointValues.add(sample("p1", i * 1000L, String.valueOf(i * 0.25)));
+        }
+        hotWindow.put(pointValues);
+
+        List<PointValue> range = hotWindow.range("d1", "p1", start, start + 99000);
+        List<PointValue> expected = new ArrayList<>(pointValues);
+        Collections.reverse(expected);
+        assertEquals(expected, range);
+
+        assertEquals(Arrays.asList("24.75", "24.5", "24.25"), hotWindow.latest("d1", "p1", 3));
+    }
+
+    @Test
+    void rangeOutsideWindowReturnsNull() {
+        hotWindow.put(Collections.singletonList(sample("p1", 0, "1")));
+
+        assertNull(hotWindow.range("d1", "p1", start - 1, start));
+        assertNull(hotWindow.range("d1", "p2", start, start));
+        assertNull(hotWindow.latest("d1", "p1", 2));
+    }
+
+    /**
+     * 设备 d1 位号在 start 之后 offset 毫秒采集、5 毫秒后接收的数据
+     */
+    private PointValue sample(String pointId, long offset, String value) {
+        PointValue pointValue = new PointValue("d1", pointId, value, value);
+        pointValue.setOriginTime(new Date(start + offset));
+        pointValue.setCreateTime(new Date(start + offset + 5));
+        return pointValue;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueSeries 压缩与解码测试
+ *
+ * @author pnoker
+ */
+class PointValueSeriesTest {
+
+    @Test
+    void roundTripAcrossBlocksAndWords() {
+        PointValueSeries series = new PointValueSeries(120, 0);
+        Random random = new Random(1);
+        List<PointValueSeries.Sample> expected = new ArrayList<>();
+        long time = 1600000000000L;
+        for (int i = 0; i < 5000; i++) {
+            time += 1000 + random.nextInt(50) - 25;
+            long other = time + random.nextInt(200) - 100;
+            String value = BigDecimal.valueOf(random.nextInt(2000000) - 1000000, random.nextInt(4)).toPlainString();
+            String rawValue = i % 3 == 0 ? value : String.valueOf(random.nextInt(4096));
+            series.append(time, other, value, rawValue);
+            expected.add(new PointValueSeries.Sample(time, other, value, rawValue));
+        }
+
+        assertSamples(expected, series.read(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void roundTripLargeDeltasAndScaleChanges() {
+        PointValueSeries series = new PointValueSeries(64, 0);
+        String[] values = {"0", "123456789012345", "-0.5", "0.0000000001", "42", "42.00", "-98765.4321", "1"};
+        long[] gaps = {1, 1L << 40, 0, 3, 1L << 33, 7};
+        List<PointValueSeries.Sample> expected = new ArrayList<>();
+        long time = 0;
+        for (int i = 0; i < 1000; i++) {
+            time += gaps[i % gaps.length];
+            long other = i % 2 == 0 ? 0 : time + (1L << 35);
+            String value = values[i % values.length];
+            String rawValue = values[(i + 3) % values.length];
+            series.append(time, other, value, rawValue);
+            expected.add(new PointValueSeries.Sample(time, other, value, rawValue));
+        }
+
+        assertSamples(expected, series.read(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    void readRangeAndLatest() {
+        PointValueSeries series = new PointValueSeries(10, 1000);
+        for (int i = 1; i <= 35; i++) {
+            series.append(i * 1000L, i * 1000L + 1, String.valueOf(i), String.valueOf(i));
+        }
+
+        List<PointValueSeries.Sample> range = series.read(12000, 14000);
+        assertEquals(3, range.size());
+        assertEquals("12", range.get(0).getValue());
+        assertEquals("14", range.get(2).getValue());
+
+        List<PointValueSeries.Sample> latest = series.latest(5);
+        assertEquals(5, latest.size());
+        assertEquals(31000, latest.get(0).getTime());
+        assertEquals("35", latest.get(4).getValue());
+        assertNull(series.latest(36));
+    }
+
+    @Test
+    void trimWholeBlocks() {
+        PointValueSeries series = new PointValueSeries(10, 1000);
+        for (int i = 1; i <= 35; i++) {
+            series.append(i * 1000L, i * 1000L, String.valueOf(i), String.valueOf(i));
+        }
+
+        series.trim(20500);
+        assertNull(series.read(0, Long.MAX_VALUE));
+        List<PointValueSeries.Sample> samples = series.read(20001, Long.MAX_VALUE);
+        assertEquals(15, samples.size());
+        assertEquals(21000, samples.get(0).getTime());
+        assertNull(series.latest(20));
+    }
+
+    @Test
+    void uncacheableValuesMoveCoverStart() {
+        PointValueSeries series = new PointValueSeries(10, 0);
+        series.append(1000, 1000L, "1", "1");
+        series.append(2000, 2000L, "2", "2");
+        // 乱序到达的数据
+        series.append(1500, 1500L, "3", "3");
+        assertNull(series.read(0, Long.MAX_VALUE));
+        assertEquals(1, series.read(1501, Long.MAX_VALUE).size());
+
+        // 无法无损保存的数据
+        series.append(3000, 3000L, "1e3", "1e3");
+        series.append(4000, 4000L, "-0.0", "-0.0");
+        series.append(5000, 5000L, "on", "on");
+        assertNull(series.read(1501, Long.MAX_VALUE));
+        assertTrue(series.read(5001, Long.MAX_VALUE).isEmpty());
+    }
+
+    private void assertSamples(List<PointValueSeries.Sample> expected, List<PointValueSeries.Sample> actual) {
+        assertNotNull(actual);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            PointValueSeries.Sample sample = expected.get(i);
+            assertEquals(sample.getTime(), actual.get(i).getTime(), "time of sample " + i);
+            assertEquals(sample.getOther(), actual.get(i).getOther(), "other time of sample " + i);
+            assertEquals(sample.getValue(), actual.get(i).getValue(), "value of sample " + i);
+            assertEquals(sample.getRawValue(), actual.get(i).getRawValue(), "raw value of sample " + i);
+        }
+    }
+}
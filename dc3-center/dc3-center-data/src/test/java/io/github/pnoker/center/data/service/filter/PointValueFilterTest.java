@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.filter;
+
+import io.github.pnoker.center.data.bean.FilterProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueFilter 过滤与状态回退测试
+ *
+ * @author pnoker
+ */
+class PointValueFilterTest {
+
+    @Test
+    void rolledBackValuesPassAgain() {
+        PointValueFilter filter = filter(FilterProperty.Mode.CHANGE, 0, 0);
+        List<PointValue> pointValues = Arrays.asList(value(1000, "1"), value(2000, "1"));
+
+        PointValueFilter.Result result = filter.filter(pointValues);
+        assertEquals(Collections.singletonList(1000L), times(result));
+
+        filter.rollback(result);
+        assertEquals(Collections.singletonList(1000L), times(filter.filter(pointValues)));
+        assertTrue(filter.filter(pointValues).getValues().isEmpty());
+    }
+
+    @Test
+    void swingingDoorKeepsTurningPoints() {
+        PointValueFilter filter = filter(FilterProperty.Mode.SWINGING_DOOR, 0.1, 0);
+        List<PointValue> pointValues = new ArrayList<>();
+        for (int i = 0; i <= 20; i++) {
+            pointValues.add(value(i * 1000L, String.valueOf(Math.min(i, 10))));
+        }
+
+        assertEquals(Arrays.asList(0L, 10000L), times(filter.filter(pointValues)));
+
+        // heartbeat 为 0 时暂存的数据只在停止服务时保存
+        assertTrue(filter.flush(false).getValues().isEmpty());
+        assertEquals(Collections.singletonList(20000L), times(filter.flush(true)));
+    }
+
+    @Test
+    void swingingDoorSavesNonFiniteValuesAsText() {
+        PointValueFilter filter = filter(FilterProperty.Mode.SWINGING_DOOR, 0.1, 0);
+
+        // NaN、Infinity 与溢出的数值按非数值数据处理，先保存暂存的拐点
+        List<PointValue> pointValues = Arrays.asList(value(0, "0"), value(1000, "1"), value(2000, "2"),
+                value(3000, "NaN"), value(4000, "1e400"), value(5000, "4"));
+        assertEquals(Arrays.asList(0L, 2000L, 3000L, 4000L, 5000L), times(filter.filter(pointValues)));
+    }
+
+    @Test
+    void heldValueIsEmittedAgainAfterRollback() {
+        PointValueFilter filter = filter(FilterProperty.Mode.SWINGING_DOOR, 0.1, 0);
+        assertEquals(Collections.singletonList(0L), times(filter.filter(Arrays.asList(value(0, "0"), value(1000, "1"), value(2000, "2"), value(3000, "3")))));
+
+        // 暂存的拐点随下一批数据保存，该批数据写入失败重新投递时仍需保存拐点
+        List<PointValue> second = Arrays.asList(value(4000, "3"), value(5000, "3"));
+        PointValueFilter.Result result = filter.filter(second);
+        assertEquals(Collections.singletonList(3000L), times(result));
+
+        filter.rollback(result);
+        assertEquals(Collections.singletonList(3000L), times(filter.filter(second)));
+    }
+
+    @Test
+    void inFlightBatchesShareStateAndKeepTurningPoints() {
+        PointValueFilter filter = filter(FilterProperty.Mode.SWINGING_DOOR, 0.1, 0);
+
+        // 三个批次同时处理中，后一个批次基于前一个批次的状态过滤
+        PointValueFilter.Result first = filter.filter(Arrays.asList(value(0, "0"), value(1000, "1"), value(2000, "2"), value(3000, "3")));
+        PointValueFilter.Result second = filter.filter(Arrays.asList(value(4000, "3"), value(5000, "3")));
+        PointValueFilter.Result third = filter.filter(Arrays.asList(value(6000, "3"), value(7000, "10")));
+        assertEquals(Collections.singletonList(0L), times(first));
+        assertEquals(Collections.singletonList(3000L), times(second));
+        assertEquals(Collections.singletonList(6000L), times(third));
+
+        // 第二个批次写入失败时状态已被第三个批次更新，随其保存的拐点由 flush 重新保存
+        filter.rollback(second);
+        assertEquals(Collections.singletonList(3000L), times(filter.flush(false)));
+        assertTrue(filter.flush(false).getValues().isEmpty());
+    }
+
+    @Test
+    void heldValueIsFlushedAfterHeartbeat() {
+        PointValueFilter filter = filter(FilterProperty.Mode.SWINGING_DOOR, 0.1, 50);
+        setClock(filter, 100000);
+        List<PointValue> pointValues = new ArrayList<>();
+        for (int i = 0; i <= 5; i++) {
+            pointValues.add(value(i, String.valueOf(i)));
+        }
+
+        assertEquals(Collections.singletonList(0L), times(filter.filter(pointValues)));
+        setClock(filter, 100049);
+        assertTrue(filter.flush(false).getValues().isEmpty());
+
+        setClock(filter, 100050);
+        assertEquals(Collections.singletonList(5L), times(filter.flush(false)));
+        assertTrue(filter.flush(false).getValues().isEmpty());
+    }
+
+    private PointValueFilter filter(FilterProperty.Mode mode, double deadband, long heartbeat) {
+        FilterProperty filterProperty = new FilterProperty();
+        filterProperty.setEnable(true);
+        filterProperty.setMode(mode);
+        filterProperty.setDeadband(deadband);
+        filterProperty.setHeartbeat(heartbeat);
+
+        PointValueFilter filter = new PointValueFilter();
+        ReflectionTestUtils.setField(filter, "filterProperty", filterProperty);
+        ReflectionTestUtils.setField(filter, "meterRegistry", new SimpleMeterRegistry());
+        filter.afterPropertiesSet();
+        return filter;
+    }
+
+    private void setClock(PointValueFilter filter, long millis) {
+        ReflectionTestUtils.setField(filter, "clock", Clock.fixed(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+
+    /**
+     * 设备 d1 位号 p1 在 time 毫秒采集的数据
+     */
+    private PointValue value(long time, String value) {
+        PointValue pointValue = new PointValue("d1", "p1", value, value);
+        pointValue.setOriginTime(new Date(time));
+        return pointValue;
+    }
+
+    private List<Long> times(PointValueFilter.Result result) {
+        return result.getValues().stream().map(pointValue -> pointValue.getOriginTime().getTime()).collect(Collectors.toList());
+    }
+}
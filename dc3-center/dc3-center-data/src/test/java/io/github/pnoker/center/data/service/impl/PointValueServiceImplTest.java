@@ -0,0 +1,130 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.exception.ServiceException;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueServiceImpl 游标编码与翻页测试
+ *
+ * @author pnoker
+ */
+class PointValueServiceImplTest {
+
+    @Test
+    void cursorRoundTrips() {
+        PointValueServiceImpl.Cursor cursor = new PointValueServiceImpl.Cursor(1600000000000L, "p::1", 3);
+        String encoded = cursor.encode();
+
+        // 位号中包含分隔符时仍能解析，编码结果可直接放入 URL
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+        PointValueServiceImpl.Cursor decoded = PointValueServiceImpl.Cursor.decode(encoded);
+        assertEquals(1600000000000L, (long) ReflectionTestUtils.getField(decoded, "time"));
+        assertEquals("p::1", ReflectionTestUtils.getField(decoded, "key"));
+        assertEquals(3, (int) ReflectionTestUtils.getField(decoded, "skip"));
+    }
+
+    @Test
+    void cursorWithoutKeyDecodes() {
+        PointValueServiceImpl.Cursor decoded = PointValueServiceImpl.Cursor.decode(new PointValueServiceImpl.Cursor(1000L, null, 0).encode());
+        assertNull(ReflectionTestUtils.getField(decoded, "key"));
+        assertNull(PointValueServiceImpl.Cursor.decode(""));
+        assertNull(PointValueServiceImpl.Cursor.decode(null));
+    }
+
+    @Test
+    void invalidCursorIsRejected() {
+        assertThrows(ServiceException.class, () -> PointValueServiceImpl.Cursor.decode("not a cursor"));
+        String text = Base64.getUrlEncoder().encodeToString("abc::1".getBytes(StandardCharsets.UTF_8));
+        assertThrows(ServiceException.class, () -> PointValueServiceImpl.Cursor.decode(text));
+    }
+
+    @Test
+    void nextCountsTrailingValuesWithSameTimeAndKey() {
+        List<PointValue> page = Arrays.asList(value(3000, "p1"), value(2000, "p2"), value(2000, "p1"), value(2000, "p1"));
+
+        PointValueServiceImpl.Cursor cursor = PointValueServiceImpl.Cursor.next(null, page, PointValue::getOriginTime);
+        assertEquals(2000L, (long) ReflectionTestUtils.getField(cursor, "time"));
+        assertEquals("p1", ReflectionTestUtils.getField(cursor, "key"));
+        assertEquals(2, (int) ReflectionTestUtils.getField(cursor, "skip"));
+
+        // 整页都与上一页最后一条相同时累加跳过数量
+        List<PointValue> same = Arrays.asList(value(2000, "p1"), value(2000, "p1"));
+        PointValueServiceImpl.Cursor following = PointValueServiceImpl.Cursor.next(cursor, same, PointValue::getOriginTime);
+        assertEquals(4, (int) ReflectionTestUtils.getField(following, "skip"));
+    }
+
+    @Test
+    void pagesReturnEveryValueOnce() {
+        // 大量同一时间、同一位号的数据，按游标翻页的查询条件逐页读取
+        List<PointValue> values = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            values.add(value(1000L * (i % 4), "p" + (i % 3)));
+        }
+        values.sort(Comparator.comparing(PointValue::getOriginTime).thenComparing(PointValue::getPointId).reversed());
+
+        for (int size = 1; size <= 7; size++) {
+            List<PointValue> read = new ArrayList<>();
+            String encoded = null;
+            do {
+                PointValueServiceImpl.Cursor cursor = PointValueServiceImpl.Cursor.decode(encoded);
+                List<PointValue> page = query(values, cursor, size + 1);
+                encoded = null;
+                if (page.size() > size) {
+                    page = page.subList(0, size);
+                    encoded = PointValueServiceImpl.Cursor.next(cursor, page, PointValue::getOriginTime).encode();
+                }
+                read.addAll(page);
+            } while (null != encoded);
+            assertEquals(values, read, "page size " + size);
+        }
+    }
+
+    /**
+     * 与查询条件一致：时间小于游标时间，或时间相同且位号不大于游标位号，再跳过 skip 条
+     */
+    private List<PointValue> query(List<PointValue> values, PointValueServiceImpl.Cursor cursor, int limit) {
+        if (null == cursor) {
+            return values.stream().limit(limit).collect(Collectors.toList());
+        }
+
+        long time = (long) ReflectionTestUtils.getField(cursor, "time");
+        String key = (String) ReflectionTestUtils.getField(cursor, "key");
+        int skip = (int) ReflectionTestUtils.getField(cursor, "skip");
+        return values.stream()
+                .filter(value -> value.getOriginTime().getTime() < time
+                        || value.getOriginTime().getTime() == time && value.getPointId().compareTo(key) <= 0)
+                .skip(skip)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    private PointValue value(long time, String pointId) {
+        PointValue pointValue = new PointValue("d1", pointId, "1", "1");
+        pointValue.setOriginTime(new Date(time));
+        return pointValue;
+    }
+}
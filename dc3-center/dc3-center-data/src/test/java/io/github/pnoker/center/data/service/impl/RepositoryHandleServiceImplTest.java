@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl;
+
+import io.github.pnoker.center.data.bean.FilterProperty;
+import io.github.pnoker.center.data.bean.RepositoryProperty;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.center.data.service.cache.PointValueHotWindow;
+import io.github.pnoker.center.data.service.filter.PointValueFilter;
+import io.github.pnoker.center.data.service.rollup.PointValueRollup;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.exception.ServiceException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * RepositoryHandleServiceImpl 保存结果与重新投递测试
+ *
+ * @author pnoker
+ */
+class RepositoryHandleServiceImplTest {
+
+    private final FakeRepositoryService redis = new FakeRepositoryService();
+    private final FakeRepositoryService mongo = new FakeRepositoryService();
+    private final PointValueHotWindow hotWindow = mock(PointValueHotWindow.class);
+    private final PointValueRollup rollup = mock(PointValueRollup.class);
+    private RepositoryHandleServiceImpl service;
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void realtimeFailureSkipsRollupUntilRedelivered() {
+        service = service(FilterProperty.Mode.NONE);
+        List<PointValue> batch = Arrays.asList(value(1000, "1"), value(2000, "2"));
+
+        redis.failures.set(1);
+        assertThrows(CompletionException.class, () -> service.save(batch).join());
+        assertEquals(1, mongo.saved.size());
+        verify(rollup, never()).accumulate(anyList());
+        verify(hotWindow, never()).put(anyList());
+
+        // 重新投递的批次保存成功后只累加一次
+        service.save(batch).join();
+        verify(rollup, times(1)).accumulate(batch);
+        verify(hotWindow, times(1)).put(batch);
+    }
+
+    @Test
+    void realtimeFailureRollsBackFilterState() {
+        service = service(FilterProperty.Mode.CHANGE);
+        List<PointValue> batch = Arrays.asList(value(1000, "1"), value(2000, "2"));
+
+        // 历史存储已保存，实时数据写入失败，重新投递的数据仍需通过过滤并累加
+        redis.failures.set(1);
+        assertThrows(CompletionException.class, () -> service.save(batch).join());
+        service.save(batch).join();
+
+        assertEquals(2, mongo.saved.size());
+        assertEquals(2, mongo.saved.get(1).size());
+        ArgumentCaptor<List<PointValue>> captor = ArgumentCaptor.forClass(List.class);
+        verify(rollup, times(1)).accumulate(captor.capture());
+        assertEquals(2, captor.getValue().size());
+    }
+
+    @Test
+    void historyFailureFailsTheBatch() {
+        service = service(FilterProperty.Mode.NONE);
+
+        mongo.failures.set(1);
+        assertThrows(CompletionException.class, () -> service.save(Collections.singletonList(value(1000, "1"))).join());
+        verify(rollup, never()).accumulate(anyList());
+    }
+
+    private RepositoryHandleServiceImpl service(FilterProperty.Mode mode) {
+        RepositoryProperty repositoryProperty = new RepositoryProperty();
+        repositoryProperty.getRepository().put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_REDIS, pipelineProperty());
+        repositoryProperty.getRepository().put(CommonConstant.RepositoryStrategy.REPOSITORY_STRATEGY_MONGO, pipelineProperty());
+
+        FilterProperty filterProperty = new FilterProperty();
+        filterProperty.setEnable(!FilterProperty.Mode.NONE.equals(mode));
+        filterProperty.setMode(mode);
+        filterProperty.setFlushInterval(60000);
+        PointValueFilter filter = new PointValueFilter();
+        ReflectionTestUtils.setField(filter, "filterProperty", filterProperty);
+        ReflectionTestUtils.setField(filter, "meterRegistry", new SimpleMeterRegistry());
+        filter.afterPropertiesSet();
+
+        RepositoryHandleServiceImpl service = new RepositoryHandleServiceImpl();
+        ReflectionTestUtils.setField(service, "enableInfluxdb", false);
+        ReflectionTestUtils.setField(service, "enableOpentsdb", false);
+        ReflectionTestUtils.setField(service, "enableElasticsearch", false);
+        ReflectionTestUtils.setField(service, "redisRepositoryService", redis);
+        ReflectionTestUtils.setField(service, "mongoRepositoryService", mongo);
+        ReflectionTestUtils.setField(service, "repositoryProperty", repositoryProperty);
+        ReflectionTestUtils.setField(service, "filterProperty", filterProperty);
+        ReflectionTestUtils.setField(service, "pointValueFilter", filter);
+        ReflectionTestUtils.setField(service, "pointValueHotWindow", hotWindow);
+        ReflectionTestUtils.setField(service, "pointValueRollup", rollup);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "scheduledThreadPoolExecutor", new ScheduledThreadPoolExecutor(1));
+        service.afterPropertiesSet();
+        return service;
+    }
+
+    private RepositoryProperty.PipelineProperty pipelineProperty() {
+        RepositoryProperty.PipelineProperty property = new RepositoryProperty.PipelineProperty();
+        property.setPrimary(true);
+        property.setPoolSize(1);
+        property.setRetryTimes(0);
+        return property;
+    }
+
+    private PointValue value(long time, String value) {
+        PointValue pointValue = new PointValue("d1", "p1", value, value);
+        pointValue.setOriginTime(new Date(time));
+        return pointValue;
+    }
+
+    /**
+     * 记录写入的数据，failures 大于 0 时写入失败
+     */
+    private static class FakeRepositoryService implements RepositoryService {
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private final List<List<PointValue>> saved = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void savePointValue(PointValue pointValue) {
+            savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+        }
+
+        @Override
+        public void savePointValues(String deviceId, List<PointValue> pointValues) {
+            if (failures.getAndDecrement() > 0) {
+                throw new ServiceException("Repository unavailable");
+            }
+            saved.add(new ArrayList<>(pointValues));
+        }
+    }
+}
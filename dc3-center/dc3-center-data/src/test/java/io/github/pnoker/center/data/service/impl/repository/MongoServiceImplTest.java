@@ -0,0 +1,222 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.impl.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.exception.ServiceException;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * MongoServiceImpl 分桶写入与分桶编号冲突重试测试
+ *
+ * @author pnoker
+ */
+class MongoServiceImplTest {
+
+    /**
+     * 一个时间窗口的起始时间，与 bucketSpan 对齐
+     */
+    private static final long START = 1599998400000L;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final List<Round> rounds = new ArrayList<>();
+    private final List<Document> openBuckets = new ArrayList<>();
+    private final List<Document> storedSamples = new ArrayList<>();
+    private final Deque<RuntimeException> failures = new ArrayDeque<>();
+    private MongoServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        MongoProperty mongoProperty = new MongoProperty();
+        mongoProperty.setMode(MongoProperty.Mode.BUCKET);
+        mongoProperty.setBucketSpan(3600);
+        mongoProperty.setBucketSize(10);
+
+        when(mongoTemplate.indexOps(anyString())).thenReturn(mock(IndexOperations.class));
+        when(mongoTemplate.aggregate(any(Aggregation.class), anyString(), eq(Document.class))).thenAnswer(invocation -> {
+            boolean samples = invocation.getArgument(0).toString().contains("$unwind");
+            return new AggregationResults<>(new ArrayList<>(samples ? storedSamples : openBuckets), new Document());
+        });
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), any(Class.class), anyString())).thenAnswer(invocation -> {
+            Round round = new Round();
+            rounds.add(round);
+            BulkOperations bulkOperations = mock(BulkOperations.class);
+            when(bulkOperations.upsert(any(Query.class), any(Update.class))).thenAnswer(upsert -> {
+                round.queries.add(upsert.getArgument(0));
+                round.updates.add(upsert.getArgument(1));
+                return bulkOperations;
+            });
+            when(bulkOperations.execute()).thenAnswer(execute -> {
+                if (!failures.isEmpty()) {
+                    throw failures.poll();
+                }
+                return BulkWriteResult.unacknowledged();
+            });
+            return bulkOperations;
+        });
+
+        service = new MongoServiceImpl();
+        ReflectionTestUtils.setField(service, "mongoProperty", mongoProperty);
+        ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+        service.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    void splitsByRemainingCapacity() {
+        openBuckets.add(openBucket(2, 8, START + 1000));
+
+        service.savePointValues("d1", values(10, 15));
+
+        // 最后一个分桶剩余 2 个容量，其余数据写入下一个编号的分桶
+        Round round = rounds.get(0);
+        assertEquals(Arrays.asList(2, 3), round.seqs());
+        assertEquals(Arrays.asList(2, 3), round.sizes());
+        assertEquals(8, round.queries.get(0).getQueryObject().get("count", Document.class).getInteger("$lte"));
+    }
+
+    @Test
+    void startsNewWindowAtFirstSeq() {
+        service.savePointValues("d1", values(0, 25));
+
+        assertEquals(Arrays.asList(0, 1, 2), rounds.get(0).seqs());
+        assertEquals(Arrays.asList(10, 10, 5), rounds.get(0).sizes());
+    }
+
+    @Test
+    void skipsStoredAndDuplicatedSamples() {
+        openBuckets.add(openBucket(0, 3, START + 2000));
+        storedSamples.add(new Document("pointId", "p1").append("t", new Date(START + 1000)));
+
+        List<PointValue> pointValues = new ArrayList<>(values(1, 4));
+        pointValues.add(value(3));
+        service.savePointValues("d1", pointValues);
+
+        // 已写入的 1 与本批次重复的 3 只写入一次
+        assertEquals(Collections.singletonList(Arrays.asList(START + 2000, START + 3000)), rounds.get(0).times());
+    }
+
+    @Test
+    void rewritesOnlyConflictingBuckets() {
+        failures.add(bulkError(DUPLICATE_KEY, 1));
+
+        service.savePointValues("d1", values(0, 15));
+
+        // 第二个分桶被其他实例占用，重新查询后只写入冲突的数据
+        assertEquals(2, rounds.size());
+        assertEquals(Arrays.asList(10, 5), rounds.get(0).sizes());
+        assertEquals(Collections.singletonList(5), rounds.get(1).sizes());
+        assertEquals(START + 10000, rounds.get(1).times().get(0).get(0));
+    }
+
+    @Test
+    void failsAfterRetryTimes() {
+        failures.add(bulkError(DUPLICATE_KEY, 0));
+        failures.add(bulkError(DUPLICATE_KEY, 0));
+        failures.add(bulkError(DUPLICATE_KEY, 0));
+
+        assertThrows(ServiceException.class, () -> service.savePointValues("d1", values(0, 5)));
+        assertEquals(3, rounds.size());
+    }
+
+    @Test
+    void failsOnOtherErrors() {
+        failures.add(bulkError(121, 0));
+
+        assertThrows(ServiceException.class, () -> service.savePointValues("d1", values(0, 5)));
+        assertEquals(1, rounds.size());
+    }
+
+    private Document openBucket(int seq, int count, long lastTime) {
+        return new Document("_id", new Document("pointId", "p1").append("start", new Date(START)))
+                .append("seq", seq)
+                .append("count", count)
+                .append("lastTime", new Date(lastTime));
+    }
+
+    private BulkOperationException bulkError(int code, int index) {
+        BulkWriteError error = new BulkWriteError(code, "E" + code, new BsonDocument(), index);
+        MongoBulkWriteException source = new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                Collections.singletonList(error), null, new ServerAddress(), Collections.emptySet());
+        return new BulkOperationException(error.getMessage(), source);
+    }
+
+    private List<PointValue> values(int from, int to) {
+        return IntStream.range(from, to).mapToObj(this::value).collect(Collectors.toList());
+    }
+
+    private PointValue value(int second) {
+        PointValue pointValue = new PointValue("d1", "p1", String.valueOf(second), String.valueOf(second));
+        pointValue.setOriginTime(new Date(START + second * 1000L));
+        return pointValue;
+    }
+
+    /**
+     * 一轮 BulkOperations 中的 upsert
+     */
+    private static class Round {
+        private final List<Query> queries = new ArrayList<>();
+        private final List<Update> updates = new ArrayList<>();
+
+        private List<Integer> seqs() {
+            return queries.stream().map(query -> query.getQueryObject().getInteger("seq")).collect(Collectors.toList());
+        }
+
+        private List<Integer> sizes() {
+            return updates.stream().map(update -> update.getUpdateObject().get("$inc", Document.class).getInteger("count")).collect(Collectors.toList());
+        }
+
+        private List<List<Long>> times() {
+            return queries.stream()
+                    .map(query -> query.getQueryObject().get("samples.t", Document.class).getList("$nin", Date.class).stream()
+                            .map(Date::getTime)
+                            .collect(Collectors.toList()))
+                    .collect(Collectors.toList());
+        }
+    }
+}
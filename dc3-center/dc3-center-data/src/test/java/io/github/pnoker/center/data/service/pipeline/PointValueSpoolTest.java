@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.pipeline;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueSpool 写入、重启恢复与损坏处理测试
+ *
+ * @author pnoker
+ */
+class PointValueSpoolTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void replaysInOrderAcrossRestart() throws IOException {
+        PointValueSpool spool = spool();
+        spool.append(batch(1));
+        spool.append(batch(2));
+        spool.append(batch(3));
+        spool.commit(spool.next());
+        spool.close();
+
+        // 重启后跳过已重放的记录，按写入顺序继续重放
+        spool = spool();
+        assertEquals(2, spool.size());
+        assertReplays(spool, batch(2), batch(3));
+        assertEquals(0, spool.size());
+        spool.close();
+
+        spool = spool();
+        assertEquals(0, spool.size());
+        assertNull(spool.next());
+        spool.close();
+    }
+
+    @Test
+    void tornLengthAtSegmentEndIsIgnored() throws IOException {
+        PointValueSpool spool = spool();
+        spool.append(batch(1));
+        spool.append(batch(2));
+        spool.close();
+
+        // 写入中断时长度可能为任意值，超出 Segment 的长度视为 Segment 结束
+        writeInt(segment(), endOfRecords(segment()), Integer.MIN_VALUE);
+        spool = spool();
+        assertEquals(2, spool.size());
+        assertReplays(spool, batch(1), batch(2));
+        assertEquals(0, spool.dropped());
+        spool.close();
+    }
+
+    @Test
+    void oversizedLengthIsIgnoredOnRecovery() throws IOException {
+        PointValueSpool spool = spool();
+        spool.append(batch(1));
+        spool.close();
+
+        writeInt(segment(), endOfRecords(segment()), Integer.MAX_VALUE);
+        spool = spool();
+        assertEquals(1, spool.size());
+        assertReplays(spool, batch(1));
+        spool.close();
+    }
+
+    @Test
+    void corruptedRecordDropsRestOfSegment() throws IOException {
+        PointValueSpool spool = spool();
+        spool.append(batch(1));
+        spool.append(batch(2));
+        spool.append(batch(3));
+        spool.close();
+
+        // 第二条记录的 CRC 不匹配，之后的记录全部丢弃并计入 dropped
+        File segment = segment();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            int second = 8 + file.readInt();
+            writeInt(segment, second + 4, 0x5A5A5A5A);
+        }
+        spool = spool();
+        assertReplays(spool, batch(1));
+        assertEquals(2, spool.dropped());
+        assertEquals(0, spool.size());
+        spool.close();
+    }
+
+    @Test
+    void fullSpoolDropsOldestSegment() throws IOException {
+        PointValueSpool spool = new PointValueSpool("test", directory, SEGMENT_SIZE, 2L * SEGMENT_SIZE);
+        int batches = 0;
+        while (spool.dropped() == 0) {
+            spool.append(batch(batches++));
+        }
+
+        // 最早的 Segment 被删除后，剩余数据仍按顺序重放
+        long remaining = spool.size();
+        assertEquals(batches, remaining + spool.dropped());
+        List<PointValue> first = spool.next().getPointValues();
+        assertEquals(batch((int) (batches - remaining)), first);
+        spool.close();
+    }
+
+    private PointValueSpool spool() throws IOException {
+        return new PointValueSpool("test", directory, SEGMENT_SIZE, 16L * SEGMENT_SIZE);
+    }
+
+    private void assertReplays(PointValueSpool spool, List<?>... batches) {
+        List<List<PointValue>> replayed = new ArrayList<>();
+        PointValueSpool.Record record;
+        while (null != (record = spool.next())) {
+            replayed.add(record.getPointValues());
+            spool.commit(record);
+        }
+        assertEquals(Arrays.asList(batches), replayed);
+    }
+
+    private File segment() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".spool"));
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    /**
+     * 最后一条记录之后的位置
+     */
+    private int endOfRecords(File segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            int position = 0;
+            int length;
+            while (0 != (length = file.readInt())) {
+                position += 8 + Math.abs(length);
+                file.seek(position);
+            }
+            return position;
+        }
+    }
+
+    private void writeInt(File segment, int position, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(position);
+            file.writeInt(value);
+        }
+    }
+
+    private List<PointValue> batch(int index) {
+        Date time = new Date(1600000000000L + index * 1000L);
+        PointValue pointValue = new PointValue("d1", "p" + index, String.valueOf(index), String.valueOf(index));
+        pointValue.setOriginTime(time);
+        pointValue.setCreateTime(time);
+        return Collections.singletonList(pointValue);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.pipeline;
+
+import io.github.pnoker.center.data.bean.RepositoryProperty;
+import io.github.pnoker.center.data.service.RepositoryService;
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.exception.ServiceException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RepositoryPipeline 重试、暂存与重放测试
+ *
+ * @author pnoker
+ */
+class RepositoryPipelineTest {
+
+    @TempDir
+    File directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FakeRepositoryService repositoryService = new FakeRepositoryService();
+    private RepositoryPipeline pipeline;
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown(5000);
+    }
+
+    @Test
+    void retriesUntilSaved() {
+        pipeline = pipeline(RepositoryProperty.FailurePolicy.RETRY, 3);
+        repositoryService.failures.set(2);
+
+        pipeline.submit("d1", batch(1)).join();
+        assertEquals(3, repositoryService.calls.get());
+        assertEquals(Collections.singletonList(batch(1)), repositoryService.saved);
+    }
+
+    @Test
+    void failsAfterRetryTimes() {
+        pipeline = pipeline(RepositoryProperty.FailurePolicy.RETRY, 2);
+        repositoryService.failures.set(Integer.MAX_VALUE);
+
+        assertThrows(CompletionException.class, () -> pipeline.submit("d1", batch(1)).join());
+        assertEquals(3, repositoryService.calls.get());
+        assertEquals(1, counter("dc3.repository.failed"));
+    }
+
+    @Test
+    void dropPolicyDoesNotRetry() {
+        pipeline = pipeline(RepositoryProperty.FailurePolicy.DROP, 3);
+        repositoryService.failures.set(1);
+
+        assertThrows(CompletionException.class, () -> pipeline.submit("d1", batch(1)).join());
+        assertEquals(1, repositoryService.calls.get());
+    }
+
+    @Test
+    void spooledBatchesReplayInOrder() {
+        pipeline = pipeline(RepositoryProperty.FailurePolicy.SPOOL, 0);
+        repositoryService.failures.set(2);
+
+        // 写入失败的批次暂存后视为成功，暂存中有数据时新的批次追加到暂存之后
+        pipeline.submit("d1", batch(1)).join();
+        pipeline.submit("d1", batch(2)).join();
+        pipeline.submit("d1", batch(3)).join();
+        assertEquals(3, counter("dc3.repository.spooled"));
+
+        await(() -> repositoryService.saved.size() == 3);
+        assertEquals(Arrays.asList(batch(1), batch(2), batch(3)), repositoryService.saved);
+        await(() -> gauge("dc3.repository.spool") == 0);
+
+        // 暂存取空后新的批次直接写入
+        pipeline.submit("d1", batch(4)).join();
+        assertEquals(batch(4), repositoryService.saved.get(3));
+        assertEquals(3, counter("dc3.repository.spooled"));
+    }
+
+    @Test
+    void replaySkipsBatchThatKeepsFailing() {
+        pipeline = pipeline(RepositoryProperty.FailurePolicy.SPOOL, 0);
+        repositoryService.rejects = pointValues -> "1".equals(pointValues.get(0).getValue());
+
+        // 一直写入失败的批次重放 replayTimes 次后计为失败，不再阻塞之后的批次
+        pipeline.submit("d1", batch(1)).join();
+        pipeline.submit("d1", batch(2)).join();
+        await(() -> repositoryService.saved.size() == 1);
+        assertEquals(Collections.singletonList(batch(2)), repositoryService.saved);
+        assertEquals(1, counter("dc3.repository.failed"));
+        assertEquals(1 + 3 + 1, repositoryService.calls.get());
+        assertEquals(0, counter("dc3.repository.spool.dropped"));
+    }
+
+    private RepositoryPipeline pipeline(RepositoryProperty.FailurePolicy failurePolicy, int retryTimes) {
+        RepositoryProperty.PipelineProperty property = new RepositoryProperty.PipelineProperty();
+        property.setPrimary(true);
+        property.setPoolSize(1);
+        property.setFailurePolicy(failurePolicy);
+        property.setRetryTimes(retryTimes);
+        property.setRetryInterval(1);
+
+        RepositoryProperty.SpoolProperty spoolProperty = new RepositoryProperty.SpoolProperty();
+        spoolProperty.setPath(directory.getAbsolutePath());
+        spoolProperty.setSegmentSize(64 * 1024);
+        spoolProperty.setMaxSize(1024 * 1024);
+        spoolProperty.setReplayInterval(200);
+        spoolProperty.setReplayTimes(3);
+        return new RepositoryPipeline("test", repositoryService, property, spoolProperty, meterRegistry);
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).tag("repository", "test").meter().measure().iterator().next().getValue();
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).tag("repository", "test").gauge().value();
+    }
+
+    private void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            }
+        }
+    }
+
+    private List<PointValue> batch(int index) {
+        Date time = new Date(1600000000000L + index * 1000L);
+        PointValue pointValue = new PointValue("d1", "p1", String.valueOf(index), String.valueOf(index));
+        pointValue.setOriginTime(time);
+        pointValue.setCreateTime(time);
+        return Collections.singletonList(pointValue);
+    }
+
+    /**
+     * 记录写入的数据，failures 大于 0 或 rejects 匹配时写入失败
+     */
+    private static class FakeRepositoryService implements RepositoryService {
+        private final AtomicInteger calls = new AtomicInteger(0);
+        private final AtomicInteger failures = new AtomicInteger(0);
+        private volatile Predicate<List<PointValue>> rejects = pointValues -> false;
+        private final List<List<PointValue>> saved = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void savePointValue(PointValue pointValue) {
+            savePointValues(pointValue.getDeviceId(), Collections.singletonList(pointValue));
+        }
+
+        @Override
+        public void savePointValues(String deviceId, List<PointValue> pointValues) {
+            calls.incrementAndGet();
+            if (failures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0 || rejects.test(pointValues)) {
+                throw new ServiceException("Repository unavailable");
+            }
+            saved.add(pointValues.stream().collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.center.data.service.query;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LttbDownsampler 降采样测试
+ *
+ * @author pnoker
+ */
+class LttbDownsamplerTest {
+
+    @Test
+    void outputSizeAndEndpoints() {
+        LttbDownsampler downsampler = new LttbDownsampler(0, 10000, 100);
+        for (int i = 0; i < 10000; i++) {
+            downsampler.add(i, Math.sin(i / 100D), String.valueOf(i));
+        }
+
+        List<LttbDownsampler.Sample> samples = downsampler.finish();
+        assertEquals(100, samples.size());
+        assertEquals(0, samples.get(0).getTime());
+        assertEquals(9999, samples.get(samples.size() - 1).getTime());
+        for (int i = 1; i < samples.size(); i++) {
+            assertTrue(samples.get(i).getTime() > samples.get(i - 1).getTime(), "samples must be in ascending time order");
+        }
+    }
+
+    @Test
+    void keepAllWhenFewerThanThreshold() {
+        LttbDownsampler downsampler = new LttbDownsampler(0, 1000, 100);
+        for (int i = 0; i < 50; i++) {
+            downsampler.add(i * 20L, i, String.valueOf(i));
+        }
+
+        List<LttbDownsampler.Sample> samples = downsampler.finish();
+        assertEquals(50, samples.size());
+        for (int i = 0; i < samples.size(); i++) {
+            assertEquals(i * 20L, samples.get(i).getTime());
+            assertEquals(String.valueOf(i), samples.get(i).getText());
+        }
+    }
+
+    @Test
+    void keepSpike() {
+        LttbDownsampler downsampler = new LttbDownsampler(0, 10000, 20);
+        for (int i = 0; i < 10000; i++) {
+            downsampler.add(i, i == 4321 ? 100 : 1, String.valueOf(i));
+        }
+
+        List<LttbDownsampler.Sample> samples = downsampler.finish();
+        assertTrue(samples.size() <= 20);
+        assertTrue(samples.stream().anyMatch(sample -> sample.getTime() == 4321 && sample.getValue() == 100));
+    }
+
+    @Test
+    void emptyAndSingleSample() {
+        assertTrue(new LttbDownsampler(0, 1000, 10).finish().isEmpty());
+
+        LttbDownsampler downsampler = new LttbDownsampler(0, 1000, 10);
+        downsampler.add(500, 1, "1");
+        List<LttbDownsampler.Sample> samples = downsampler.finish();
+        assertEquals(1, samples.size());
+        assertEquals(500, samples.get(0).getTime());
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.center.data.service.rollup;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import io.github.pnoker.center.data.bean.MongoProperty;
+import io.github.pnoker.common.bean.point.PointValue;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * PointValueRollup 累加与写入测试
+ *
+ * @author pnoker
+ */
+class PointValueRollupTest {
+
+    /**
+     * 当地 10 点，同一天内的时间窗口
+     */
+    private static final long TIME = PointValueRollup.Level.DAY.floor(1600000000000L) + TimeUnit.HOURS.toMillis(10);
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final Map<String, List<List<UpdateOneModel<Document>>>> writes = new HashMap<>();
+    private final Deque<RuntimeException> failures = new ArrayDeque<>();
+    private PointValueRollup rollup;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        when(mongoTemplate.getCollection(anyString())).thenAnswer(invocation -> {
+            String collection = invocation.getArgument(0);
+            MongoCollection<Document> mongoCollection = mock(MongoCollection.class);
+            when(mongoCollection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenAnswer(bulkWrite -> {
+                if (!failures.isEmpty()) {
+                    throw failures.poll();
+                }
+                writes.computeIfAbsent(collection, k -> new ArrayList<>()).add(bulkWrite.getArgument(0));
+                return BulkWriteResult.unacknowledged();
+            });
+            return mongoCollection;
+        });
+
+        rollup = new PointValueRollup();
+        ReflectionTestUtils.setField(rollup, "enable", true);
+        ReflectionTestUtils.setField(rollup, "flushInterval", 60000L);
+        ReflectionTestUtils.setField(rollup, "mongoProperty", new MongoProperty());
+        ReflectionTestUtils.setField(rollup, "mongoTemplate", mongoTemplate);
+    }
+
+    @Test
+    void accumulatesNumericValuesOfEachLevel() {
+        rollup.accumulate(Arrays.asList(value("p1", 2000, "3"), value("p1", 1000, "1.5"),
+                value("p1", 3000, "abc"), value("p1", 4000, "1e400"), value("p1", 5000, " 2")));
+        flush();
+
+        // 非数值、溢出与带空白的数据与 $convert 一致，不参与汇总
+        for (PointValueRollup.Level level : PointValueRollup.Level.values()) {
+            List<Document> sets = sets(level);
+            assertEquals(1, sets.size());
+            Document set = sets.get(0);
+            assertEquals(new Date(level.floor(TIME)), set.getDate("start"));
+            assertEquals(2L, operand(set, "count"));
+            assertEquals(4.5, operand(set, "sum"));
+            assertEquals(1.5, operand(set, "min"));
+            assertEquals(3.0, operand(set, "max"));
+            assertEquals(1.5, operand(set, "first"));
+            assertEquals(3.0, operand(set, "last"));
+        }
+    }
+
+    @Test
+    void splitsWindowsByLevel() {
+        rollup.accumulate(Arrays.asList(value("p1", 0, "1"), value("p1", TimeUnit.MINUTES.toMillis(1), "2"), value("p2", 0, "3")));
+        flush();
+
+        assertEquals(3, sets(PointValueRollup.Level.MINUTE).size());
+        List<Document> hours = sets(PointValueRollup.Level.HOUR);
+        assertEquals(2, hours.size());
+        Document p1 = hours.stream().filter(set -> "p1".equals(set.getString("pointId"))).findFirst().orElseThrow(IllegalStateException::new);
+        assertEquals(2L, operand(p1, "count"));
+        assertEquals(1.0, operand(p1, "first"));
+        assertEquals(2.0, operand(p1, "last"));
+    }
+
+    @Test
+    void restoresAccumulatorsWhenWriteFails() {
+        rollup.accumulate(Collections.singletonList(value("p1", 1000, "1")));
+        failures.add(new MongoException("Mongo unavailable"));
+        failures.add(new MongoException("Mongo unavailable"));
+        failures.add(new MongoException("Mongo unavailable"));
+        flush();
+        assertTrue(writes.isEmpty());
+
+        // 写入失败的累加值与之后的数据合并，下次写入
+        rollup.accumulate(Collections.singletonList(value("p1", 2000, "2")));
+        flush();
+        for (PointValueRollup.Level level : PointValueRollup.Level.values()) {
+            Document set = sets(level).get(0);
+            assertEquals(2L, operand(set, "count"));
+            assertEquals(3.0, operand(set, "sum"));
+        }
+    }
+
+    @Test
+    void restoresOnlyFailedModels() {
+        rollup.accumulate(Arrays.asList(value("p1", 1000, "1"), value("p2", 1000, "2")));
+        failures.add(bulkError(1));
+        flush();
+
+        // 只有失败的一个写入模型在下次写入时重新写入
+        int written = writes.values().stream().mapToInt(List::size).sum();
+        assertEquals(2, written);
+        writes.clear();
+        flush();
+        assertEquals(1, writes.values().stream().mapToInt(List::size).sum());
+        assertEquals(1, writes.values().iterator().next().get(0).size());
+    }
+
+    @Test
+    void disabledRollupIgnoresValues() {
+        ReflectionTestUtils.setField(rollup, "enable", false);
+        rollup.accumulate(Collections.singletonList(value("p1", 1000, "1")));
+        ReflectionTestUtils.setField(rollup, "enable", true);
+        flush();
+
+        assertTrue(writes.isEmpty());
+    }
+
+    private void flush() {
+        rollup.destroy();
+    }
+
+    /**
+     * 某一粒度全部写入的 $set 阶段
+     */
+    private List<Document> sets(PointValueRollup.Level level) {
+        return writes.getOrDefault(PointValueRollup.collection(level, "d1"), Collections.emptyList()).stream()
+                .flatMap(List::stream)
+                .map(model -> ((Document) model.getUpdatePipeline().get(0)).get("$set", Document.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 写入表达式中本次累加的值，均为表达式的第二个参数
+     */
+    private Object operand(Document set, String field) {
+        Document expression = set.get(field, Document.class);
+        List<?> arguments = (List<?>) expression.values().iterator().next();
+        return arguments.get(1);
+    }
+
+    private MongoBulkWriteException bulkError(int index) {
+        BulkWriteError error = new BulkWriteError(11000, "E11000", new BsonDocument(), index);
+        return new MongoBulkWriteException(BulkWriteResult.unacknowledged(), Collections.singletonList(error), null, new ServerAddress(), Collections.emptySet());
+    }
+
+    private PointValue value(String pointId, long offset, String value) {
+        PointValue pointValue = new PointValue("d1", pointId, value, value);
+        pointValue.setOriginTime(new Date(TIME + offset));
+        pointValue.setCreateTime(new Date(TIME + offset));
+        return pointValue;
+    }
+}
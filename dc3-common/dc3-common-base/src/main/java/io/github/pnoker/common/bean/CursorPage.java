@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.common.bean;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游标分页结果
+ * <p>
+ * 查询下一页时将 cursor 原样传回，cursor 为 null 时表示没有更多数据。
+ *
+ * @author pnoker
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Accessors(chain = true)
+public class CursorPage<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long size = 20;
+    private List<T> records = new ArrayList<>();
+
+    /**
+     * 下一页游标
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String cursor;
+
+    /**
+     * 总数，仅在查询时指定 count 时返回，为近似值或缓存值
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long total;
+}
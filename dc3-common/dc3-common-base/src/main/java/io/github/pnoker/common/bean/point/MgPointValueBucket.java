@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.common.bean.point;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.MongoId;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * MongoDB 位号数据分桶
+ * <p>
+ * 一个位号在一个时间窗口内的数据保存在同一个文档中，每个数据只保存时间与值，
+ * 并记录数量、数值最大最小值与首尾时间，用于快速筛选与统计。
+ *
+ * @author pnoker
+ */
+@Data
+@Document
+@NoArgsConstructor
+@AllArgsConstructor
+@Accessors(chain = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MgPointValueBucket {
+
+    @MongoId
+    private String id;
+
+    private String deviceId;
+    private String pointId;
+
+    /**
+     * 时间窗口起始时间
+     */
+    private Date start;
+
+    /**
+     * 同一时间窗口内的分桶编号，从 0 开始，前一个分桶写满后递增
+     */
+    private Integer seq;
+
+    private Integer count;
+    private Double min;
+    private Double max;
+    private Date firstTime;
+    private Date lastTime;
+
+    private List<Sample> samples;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Accessors(chain = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Sample {
+        /**
+         * originTime
+         */
+        @Field("t")
+        private Date originTime;
+
+        /**
+         * createTime
+         */
+        @Field("c")
+        private Date createTime;
+
+        @Field("v")
+        private String value;
+
+        /**
+         * rawValue，与 value 相同时不保存
+         */
+        @Field("r")
+        private String rawValue;
+
+        public Sample(PointValue pointValue) {
+            this.originTime = pointValue.getOriginTime();
+            this.createTime = pointValue.getCreateTime();
+            this.value = pointValue.getValue();
+            if (null != pointValue.getRawValue() && !pointValue.getRawValue().equals(pointValue.getValue())) {
+                this.rawValue = pointValue.getRawValue();
+            }
+        }
+    }
+}
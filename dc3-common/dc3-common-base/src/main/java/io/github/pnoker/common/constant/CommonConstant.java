@@ -165,6 +165,8 @@ public interface CommonConstant {
         String TOPIC_EXCHANGE_VALUE = "dc3.exchange.value";
         String ROUTING_POINT_VALUE_PREFIX = "dc3.routing.value.point.";
         String QUEUE_POINT_VALUE = "dc3.queue.value.point";
+        String ROUTING_POINT_VALUES_PREFIX = "dc3.routing.values.point.";
+        String QUEUE_POINT_VALUES = "dc3.queue.values.point";
     }
 
     /**
@@ -175,6 +177,16 @@ public interface CommonConstant {
          * 设备数据存储集合前缀
          */
         String POINT_VALUE_PREFIX = CacheConstant.Entity.POINT + CacheConstant.Suffix.VALUE + Symbol.UNDERSCORE;
+
+        /**
+         * 设备数据分桶存储集合前缀
+         */
+        String POINT_VALUE_BUCKET_PREFIX = POINT_VALUE_PREFIX + "bucket" + Symbol.UNDERSCORE;
+
+        /**
+         * 设备数据汇总集合前缀，后接汇总粒度与设备ID
+         */
+        String POINT_VALUE_ROLLUP_PREFIX = POINT_VALUE_PREFIX + "rollup" + Symbol.UNDERSCORE;
     }
 
     /**
@@ -202,6 +214,11 @@ public interface CommonConstant {
     interface Driver {
         int DEFAULT_MAX_REQUEST_SIZE = 100;
 
+        /**
+         * 批量发送位号值时，单条消息中最多包含的位号值数量
+         */
+        int DEFAULT_MAX_VALUE_BATCH_SIZE = 1000;
+
         /**
          * 事件相关
          */
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.common.converter;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import io.github.pnoker.common.utils.PointValueUtil;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * PointValue 二进制消息转换器
+ * <p>
+ * PointValue 及 PointValue 集合使用 PointValueUtil 编码，Content Type 为 application/x-dc3-point-value；
+ * 其他消息以及其他 Content Type 的消息交由 Json 转换器处理，因此接收端可以同时接收 Json 和二进制格式的位号数据。
+ *
+ * @author pnoker
+ */
+public class PointValueMessageConverter implements MessageConverter {
+
+    /**
+     * 标记消息中是否为 PointValue 集合
+     */
+    public static final String HEADER_BATCH = "x-dc3-batch";
+
+    private final MessageConverter delegate;
+
+    public PointValueMessageConverter() {
+        this(new Jackson2JsonMessageConverter());
+    }
+
+    public PointValueMessageConverter(MessageConverter delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (object instanceof PointValue) {
+            messageProperties.setContentType(PointValueUtil.CONTENT_TYPE);
+            byte[] bytes = PointValueUtil.encode((PointValue) object);
+            messageProperties.setContentLength(bytes.length);
+            return new Message(bytes, messageProperties);
+        }
+
+        if (object instanceof Collection && !((Collection<?>) object).isEmpty()
+                && ((Collection<?>) object).stream().allMatch(item -> item instanceof PointValue)) {
+            List<PointValue> pointValues = ((Collection<?>) object).stream().map(item -> (PointValue) item).collect(Collectors.toList());
+            messageProperties.setContentType(PointValueUtil.CONTENT_TYPE);
+            messageProperties.setHeader(HEADER_BATCH, true);
+            byte[] bytes = PointValueUtil.encode(pointValues);
+            messageProperties.setContentLength(bytes.length);
+            return new Message(bytes, messageProperties);
+        }
+
+        return delegate.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties messageProperties = message.getMessageProperties();
+        if (null == messageProperties || !PointValueUtil.CONTENT_TYPE.equals(messageProperties.getContentType())) {
+            return delegate.fromMessage(message);
+        }
+
+        try {
+            List<PointValue> pointValues = PointValueUtil.decode(message.getBody());
+            if (Boolean.TRUE.equals(messageProperties.getHeader(HEADER_BATCH))) {
+                return pointValues;
+            }
+            return pointValues.isEmpty() ? null : pointValues.get(0);
+        } catch (Exception e) {
+            throw new MessageConversionException("Failed to convert point value message", e);
+        }
+    }
+}
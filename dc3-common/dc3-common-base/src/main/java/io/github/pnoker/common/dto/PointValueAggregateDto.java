@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * 位号数据聚合、降采样查询条件
+ *
+ * @author pnoker
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Accessors(chain = true)
+public class PointValueAggregateDto implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String deviceId;
+    private String pointId;
+
+    /**
+     * 时间范围，毫秒时间戳，包含开始时间，不包含结束时间
+     */
+    private long startTime;
+    private long endTime;
+
+    /**
+     * 聚合时间间隔，毫秒，为空时按 points 计算
+     */
+    private Long interval;
+
+    /**
+     * 最多返回的数据数量，为空时使用服务端配置的上限
+     */
+    private Integer points;
+}
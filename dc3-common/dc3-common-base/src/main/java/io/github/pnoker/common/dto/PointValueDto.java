@@ -46,6 +46,16 @@ public class PointValueDto implements Serializable, Converter<PointValue, PointV
     private Boolean enable;
     private Boolean history = false;
 
+    /**
+     * 游标分页时上一页返回的游标，为空时查询第一页
+     */
+    private String cursor;
+
+    /**
+     * 游标分页时是否返回总数
+     */
+    private Boolean count = false;
+
     @JsonInclude(JsonInclude.Include.NON_NULL)
     private Pages page;
 
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.pnoker.common.utils;
+
+import io.github.pnoker.common.bean.point.PointValue;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * PointValue 二进制编解码工具类
+ * <p>
+ * 格式：版本号，字符串字典，位号数据数量，基准时间，然后依次为每个位号数据。
+ * deviceId、pointId 写入字典后只保存字典下标；时间保存为相对基准时间的毫秒差值；
+ * 数值型的 value、rawValue 保存为 varint 整数与小数位数，解码后与原字符串完全一致。
+ *
+ * @author pnoker
+ */
+public final class PointValueUtil {
+
+    public static final String CONTENT_TYPE = "application/x-dc3-point-value";
+
+    private static final byte VERSION = 1;
+
+    private static final int FLAG_ID = 1;
+    private static final int FLAG_ORIGIN_TIME = 1 << 1;
+    private static final int FLAG_CREATE_TIME = 1 << 2;
+    private static final int FLAG_RAW_SAME = 1 << 3;
+    private static final int FLAG_CHILDREN = 1 << 4;
+
+    private static final int TYPE_NULL = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_DECIMAL = 2;
+    private static final int TYPE_TRUE = 3;
+    private static final int TYPE_FALSE = 4;
+
+    private PointValueUtil() {
+    }
+
+    /**
+     * 编码单个 PointValue
+     *
+     * @param pointValue PointValue
+     * @return byte[]
+     */
+    public static byte[] encode(PointValue pointValue) {
+        return encode(Collections.singletonList(pointValue));
+    }
+
+    /**
+     * 编码 PointValue 集合
+     *
+     * @param pointValues PointValue Array
+     * @return byte[]
+     */
+    public static byte[] encode(List<? extends PointValue> pointValues) {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        long baseTime = 0;
+        for (PointValue pointValue : pointValues) {
+            index(dictionary, pointValue.getDeviceId());
+            index(dictionary, pointValue.getPointId());
+            if (baseTime == 0 && null != pointValue.getOriginTime()) {
+                baseTime = pointValue.getOriginTime().getTime();
+            }
+        }
+
+        Writer writer = new Writer(32 + pointValues.size() * 16);
+        writer.writeByte(VERSION);
+        writer.writeVarint(dictionary.size());
+        for (String text : dictionary.keySet()) {
+            writer.writeString(text);
+        }
+        writer.writeVarint(pointValues.size());
+        writer.writeVarint(baseTime);
+
+        for (PointValue pointValue : pointValues) {
+            boolean rawSame = Objects.equals(pointValue.getValue(), pointValue.getRawValue());
+            int flags = (null != pointValue.getId() ? FLAG_ID : 0)
+                    | (null != pointValue.getOriginTime() ? FLAG_ORIGIN_TIME : 0)
+                    | (null != pointValue.getCreateTime() ? FLAG_CREATE_TIME : 0)
+                    | (rawSame ? FLAG_RAW_SAME : 0)
+                    | (null != pointValue.getChildren() ? FLAG_CHILDREN : 0);
+            writer.writeByte(flags);
+            writer.writeVarint(indexOf(dictionary, pointValue.getDeviceId()));
+            writer.writeVarint(indexOf(dictionary, pointValue.getPointId()));
+            if (null != pointValue.getId()) {
+                writer.writeString(pointValue.getId());
+            }
+            writer.writeValue(pointValue.getValue());
+            if (!rawSame) {
+                writer.writeValue(pointValue.getRawValue());
+            }
+            if (null != pointValue.getOriginTime()) {
+                writer.writeZigzag(pointValue.getOriginTime().getTime() - baseTime);
+            }
+            if (null != pointValue.getCreateTime()) {
+                writer.writeZigzag(pointValue.getCreateTime().getTime() - baseTime);
+            }
+            if (null != pointValue.getChildren()) {
+                writer.writeVarint(pointValue.getChildren().size());
+                for (String child : pointValue.getChildren()) {
+                    writer.writeValue(child);
+                }
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * 编码单个 PointValue，不包含 deviceId、pointId，用于以设备、位号为键保存的场景，如 Redis 实时数据
+     *
+     * @param pointValue PointValue
+     * @return byte[]
+     */
+    public static byte[] encodeValue(PointValue pointValue) {
+        PointValue value = new PointValue();
+        value.setId(pointValue.getId());
+        value.setValue(pointValue.getValue());
+        value.setRawValue(pointValue.getRawValue());
+        value.setChildren(pointValue.getChildren());
+        value.setOriginTime(pointValue.getOriginTime());
+        value.setCreateTime(pointValue.getCreateTime());
+        return encode(value);
+    }
+
+    /**
+     * 解码 encodeValue 编码的 PointValue，并设置 deviceId、pointId
+     *
+     * @param bytes    byte[]
+     * @param deviceId Device Id
+     * @param pointId  Point Id
+     * @return PointValue
+     */
+    public static PointValue decodeValue(byte[] bytes, String deviceId, String pointId) {
+        List<PointValue> pointValues = decode(bytes);
+        if (pointValues.isEmpty()) {
+            return null;
+        }
+
+        PointValue pointValue = pointValues.get(0);
+        pointValue.setDeviceId(deviceId);
+        pointValue.setPointId(pointId);
+        return pointValue;
+    }
+
+    /**
+     * 解码 PointValue 集合
+     *
+     * @param bytes byte[]
+     * @return PointValue Array
+     */
+    public static List<PointValue> decode(byte[] bytes) {
+        Reader reader = new Reader(bytes);
+        byte version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported point value format version: " + version);
+        }
+
+        int dictionarySize = (int) reader.readVarint();
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            dictionary[i] = reader.readString();
+        }
+        int size = (int) reader.readVarint();
+        long baseTime = reader.readVarint();
+
+        List<PointValue> pointValues = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int flags = reader.readByte();
+            PointValue pointValue = new PointValue();
+            pointValue.setDeviceId(lookup(dictionary, (int) reader.readVarint()));
+            pointValue.setPointId(lookup(dictionary, (int) reader.readVarint()));
+            if ((flags & FLAG_ID) != 0) {
+                pointValue.setId(reader.readString());
+            }
+            pointValue.setValue(reader.readValue());
+            pointValue.setRawValue((flags & FLAG_RAW_SAME) != 0 ? pointValue.getValue() : reader.readValue());
+            if ((flags & FLAG_ORIGIN_TIME) != 0) {
+                pointValue.setOriginTime(new Date(baseTime + reader.readZigzag()));
+            }
+            if ((flags & FLAG_CREATE_TIME) != 0) {
+                pointValue.setCreateTime(new Date(baseTime + reader.readZigzag()));
+            }
+            if ((flags & FLAG_CHILDREN) != 0) {
+                int count = (int) reader.readVarint();
+                List<String> children = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    children.add(reader.readValue());
+                }
+                pointValue.setChildren(children);
+            }
+            pointValues.add(pointValue);
+        }
+        return pointValues;
+    }
+
+    private static void index(Map<String, Integer> dictionary, String text) {
+        if (null != text && !dictionary.containsKey(text)) {
+            dictionary.put(text, dictionary.size());
+        }
+    }
+
+    /**
+     * 字典下标加 1 后保存，0 表示 null
+     */
+    private static int indexOf(Map<String, Integer> dictionary, String text) {
+        return null == text ? 0 : dictionary.get(text) + 1;
+    }
+
+    private static String lookup(String[] dictionary, int index) {
+        return index == 0 ? null : dictionary[index - 1];
+    }
+
+    /**
+     * 判断字符串是否为普通十进制数，如 -12、3.50，只有这类字符串可以按数值无损保存
+     */
+    private static boolean isPlainDecimal(String text) {
+        int length = text.length();
+        if (length == 0 || length > 18) {
+            return false;
+        }
+        int start = text.charAt(0) == '-' ? 1 : 0;
+        if (start == length) {
+            return false;
+        }
+        boolean dot = false;
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                if (dot || i == start || i == length - 1) {
+                    return false;
+                }
+                dot = true;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Writer {
+        private final ByteArrayOutputStream output;
+
+        Writer(int size) {
+            output = new ByteArrayOutputStream(size);
+        }
+
+        void writeByte(int value) {
+            output.write(value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                output.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.write((int) value);
+        }
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+
+        void writeValue(String text) {
+            if (null == text) {
+                writeByte(TYPE_NULL);
+            } else if (Boolean.TRUE.toString().equals(text)) {
+                writeByte(TYPE_TRUE);
+            } else if (Boolean.FALSE.toString().equals(text)) {
+                writeByte(TYPE_FALSE);
+            } else if (isPlainDecimal(text)) {
+                BigDecimal decimal = new BigDecimal(text);
+                if (decimal.toPlainString().equals(text)) {
+                    writeByte(TYPE_DECIMAL);
+                    writeZigzag(decimal.unscaledValue().longValue());
+                    writeVarint(decimal.scale());
+                } else {
+                    writeByte(TYPE_STRING);
+                    writeString(text);
+                }
+            } else {
+                writeByte(TYPE_STRING);
+                writeString(text);
+            }
+        }
+
+        byte[] toByteArray() {
+            return output.toByteArray();
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] bytes;
+        private int position = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            return bytes[position++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        long readZigzag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            String text = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return text;
+        }
+
+        String readValue() {
+            int type = readByte();
+            switch (type) {
+                case TYPE_NULL:
+                    return null;
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_DECIMAL:
+                    long unscaled = readZigzag();
+                    int scale = (int) readVarint();
+                    return BigDecimal.valueOf(unscaled, scale).toPlainString();
+                case TYPE_TRUE:
+                    return Boolean.TRUE.toString();
+                case TYPE_FALSE:
+                    return Boolean.FALSE.toString();
+                default:
+                    throw new IllegalArgumentException("Unsupported point value type: " + type);
+            }
+        }
+    }
+}
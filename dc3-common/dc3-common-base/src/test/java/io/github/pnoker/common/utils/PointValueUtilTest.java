@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Pnoker All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.pnoker.common.utils;
+
+import io.github.pnoker.common.bean.point.PointValue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PointValueUtil 二进制编码与解码测试
+ *
+ * @author pnoker
+ */
+class PointValueUtilTest {
+
+    private final long now = System.currentTimeMillis();
+
+    @Test
+    void roundTripValueTypes() {
+        String[] values = {null, "true", "false", "-12", "3.50", "0.001", "0", "-0", "007", "1e5", "12.", ".5",
+                "1234567890.123456789", "-999999999999999999", "abc", "温度", ""};
+        List<PointValue> pointValues = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            PointValue pointValue = pointValue("d1", "p" + i, values[i], values[values.length - 1 - i], now + i);
+            pointValues.add(pointValue);
+        }
+
+        assertEquals(pointValues, PointValueUtil.decode(PointValueUtil.encode(pointValues)));
+    }
+
+    @Test
+    void roundTripVarintAndZigzagBoundaries() {
+        long[] offsets = {0, 1, -1, 63, -64, 64, 127, 128, -129, 16383, 16384, 1L << 35, -(1L << 35), Integer.MAX_VALUE, Integer.MIN_VALUE};
+        List<PointValue> pointValues = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long offset = offsets[i % offsets.length];
+            PointValue pointValue = pointValue("d" + i % 3, "p" + i, String.valueOf(i), String.valueOf(i), now + offset);
+            pointValue.setCreateTime(new Date(now - offset));
+            pointValues.add(pointValue);
+        }
+
+        // 超过 128 个字典项时字典下标需要多个字节
+        assertEquals(pointValues, PointValueUtil.decode(PointValueUtil.encode(pointValues)));
+    }
+
+    @Test
+    void roundTripOptionalFields() {
+        PointValue full = pointValue("d1", "p1", "1.5", "15", now);
+        full.setId("5f1d7f3a9c1e4b0001a2b3c4");
+        full.setChildren(Arrays.asList("1.4", null, "on"));
+
+        PointValue empty = new PointValue();
+
+        List<PointValue> pointValues = Arrays.asList(full, empty);
+        assertEquals(pointValues, PointValueUtil.decode(PointValueUtil.encode(pointValues)));
+    }
+
+    @Test
+    void roundTripSingleValue() {
+        PointValue pointValue = pointValue("d1", "p1", "-273.15", "-27315", now);
+        pointValue.setChildren(Collections.singletonList("-273.10"));
+
+        PointValue decoded = PointValueUtil.decodeValue(PointValueUtil.encodeValue(pointValue), "d1", "p1");
+        assertEquals(pointValue, decoded);
+    }
+
+    @Test
+    void rejectUnknownVersion() {
+        byte[] bytes = PointValueUtil.encode(pointValue("d1", "p1", "1", "1", now));
+        bytes[0] = 2;
+        assertThrows(IllegalArgumentException.class, () -> PointValueUtil.decode(bytes));
+    }
+
+    private PointValue pointValue(String deviceId, String pointId, String value, String rawValue, long time) {
+        PointValue pointValue = new PointValue();
+        pointValue.setDeviceId(deviceId);
+        pointValue.setPointId(pointId);
+        pointValue.setValue(value);
+        pointValue.setRawValue(rawValue);
+        pointValue.setOriginTime(new Date(time));
+        pointValue.setCreateTime(new Date(time + 10));
+        return pointValue;
+    }
+}
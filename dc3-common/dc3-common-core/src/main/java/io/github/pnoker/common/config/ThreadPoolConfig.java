@@ -54,7 +54,7 @@ public class ThreadPoolConfig {
                 TimeUnit.SECONDS,
                 new LinkedBlockingQueue<>(thread.getMaximumPoolSize() * 2),
                 (r) -> new Thread(r, "[T]" + thread.getPrefix() + threadPoolAtomic.getAndIncrement()),
-                (r, e) -> new BlockingRejectedExecutionHandler());
+                new BlockingRejectedExecutionHandler());
     }
 
     /**
@@ -65,7 +65,7 @@ public class ThreadPoolConfig {
         return new ScheduledThreadPoolExecutor(
                 thread.getCorePoolSize(),
                 (r) -> new Thread(r, "[S]" + thread.getPrefix() + scheduledThreadPoolAtomic.getAndIncrement()),
-                (r, e) -> new BlockingRejectedExecutionHandler());
+                new BlockingRejectedExecutionHandler());
     }
 
     private static class BlockingRejectedExecutionHandler implements RejectedExecutionHandler {
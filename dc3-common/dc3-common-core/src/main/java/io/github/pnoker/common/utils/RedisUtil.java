@@ -20,13 +20,13 @@ import cn.hutool.core.convert.Convert;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -131,6 +131,60 @@ public class RedisUtil {
         return null;
     }
 
+    /**
+     * 批量写入 Hash 缓存,并设置失效时间,通过 Pipeline 一次发送全部 HSET 与 PEXPIRE 命令
+     * <p>
+     * Hash 的字段与值直接以字节保存,不经过 RedisTemplate 的序列化;写入失败时抛出异常,由调用方决定是否重试
+     *
+     * @param hashMap Map<Key, Map<Field, byte[]>>
+     * @param time    Time,小于等于 0 时不失效
+     * @param unit    TimeUnit
+     */
+    @SuppressWarnings("unchecked")
+    public void setHash(Map<String, Map<String, byte[]>> hashMap, long time, TimeUnit unit) {
+        if (null == hashMap || hashMap.isEmpty()) {
+            return;
+        }
+
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            hashMap.forEach((key, fieldMap) -> {
+                byte[] rawKey = keySerializer.serialize(key);
+                Map<byte[], byte[]> rawFieldMap = new HashMap<>(fieldMap.size() * 2);
+                fieldMap.forEach((field, value) -> rawFieldMap.put(field.getBytes(StandardCharsets.UTF_8), value));
+                connection.hashCommands().hMSet(rawKey, rawFieldMap);
+                if (time > 0) {
+                    connection.keyCommands().pExpire(rawKey, unit.toMillis(time));
+                }
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 获取 Hash 缓存中的指定字段,字段不存在时对应位置为 null
+     *
+     * @param key    String key
+     * @param fields Field Array
+     * @return byte[] Array
+     */
+    @SuppressWarnings("unchecked")
+    public List<byte[]> getHash(String key, List<String> fields) {
+        if (null == fields || fields.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+            byte[][] rawFields = fields.stream().map(field -> field.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+            List<byte[]> values = redisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.hashCommands().hMGet(keySerializer.serialize(key), rawFields));
+            return null != values ? values : Collections.emptyList();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * 删除 Key 缓存
      *
@@ -17,6 +17,7 @@
 package io.github.pnoker.common.sdk.config;
 
 import io.github.pnoker.common.constant.CommonConstant;
+import io.github.pnoker.common.converter.PointValueMessageConverter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
@@ -40,11 +41,18 @@ public class TopicRabbitConfig {
 
     @Value("${spring.application.name}")
     private String serviceName;
+    @Value("${driver.value-format:json}")
+    private String valueFormat;
 
     @Bean
     RabbitTemplate rabbitTemplate(ConnectionFactory connectionFactory) {
         RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
-        rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+        // 位号数据可以使用二进制格式发送，需要 dc3-center-data 已支持该格式
+        if ("binary".equalsIgnoreCase(valueFormat)) {
+            rabbitTemplate.setMessageConverter(new PointValueMessageConverter());
+        } else {
+            rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+        }
         rabbitTemplate.setMandatory(true);
         rabbitTemplate.setReturnsCallback((message) -> {
             log.error("Send message({}) to exchange({}), routingKey({}) failed: {}", message.getMessage(), message.getExchange(), message.getRoutingKey(), message.getReplyText());
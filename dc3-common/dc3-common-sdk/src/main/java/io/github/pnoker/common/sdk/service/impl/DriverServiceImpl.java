@@ -18,6 +18,7 @@ package io.github.pnoker.common.sdk.service.impl;
 
 import cn.hutool.core.convert.Convert;
 import cn.hutool.core.util.StrUtil;
+import com.google.common.collect.Lists;
 import io.github.pnoker.common.bean.point.PointValue;
 import io.github.pnoker.common.constant.CommonConstant;
 import io.github.pnoker.common.constant.ValueConstant;
@@ -147,7 +148,7 @@ public class DriverServiceImpl implements DriverService {
 
     public void pointValueSender(PointValue pointValue) {
         if (null != pointValue) {
-            log.debug("Send point value: {}", JsonUtil.toJsonString(pointValue));
+            log.debug("Send point value: {}", pointValue);
             rabbitTemplate.convertAndSend(
                     CommonConstant.Rabbit.TOPIC_EXCHANGE_VALUE,
                     CommonConstant.Rabbit.ROUTING_POINT_VALUE_PREFIX + serviceName,
@@ -157,9 +158,13 @@ public class DriverServiceImpl implements DriverService {
     }
 
     public void pointValueSender(List<PointValue> pointValues) {
-        // TODO 需要添加新的队列支持list数据发送
-        if (null != pointValues) {
-            pointValues.forEach(this::pointValueSender);
+        if (null != pointValues && pointValues.size() > 0) {
+            log.debug("Send point values, size: {}", pointValues.size());
+            Lists.partition(pointValues, CommonConstant.Driver.DEFAULT_MAX_VALUE_BATCH_SIZE).forEach(partition -> rabbitTemplate.convertAndSend(
+                    CommonConstant.Rabbit.TOPIC_EXCHANGE_VALUE,
+                    CommonConstant.Rabbit.ROUTING_POINT_VALUES_PREFIX + serviceName,
+                    partition
+            ));
         }
     }
 